@@ -37,11 +37,26 @@ public class AnalyticSignalTimescale<T> extends TimescaleViewSignal<T> {
     
     AnalyticSignalTimescale(String opName, String baseName, String name, String fromName, String columnName) {
 	super(baseName, name, fromName, columnName);
+	// the rollup of a column keeps one averaged row per bucket, which
+	// count, sum and avg would take for single rows: they read the
+	// rows of the table, and after @retention cover the rows kept
 	if (columnName == null) {
 	    columnName = "value";
-	} 
+	} else {
+	    fromDB = baseName;
+	}
 	//preparedQuery = "SELECT " + opName + "(value) AS value FROM " + fromDB;
-	preparedQuery = "SELECT " + opName + "(" + columnName + ") AS value FROM " + fromDB;
+	// count is bigint and avg numeric, narrowed to the declared
+	// Integer and Double as the stored backends do; sum is wider than
+	// its column, and cast back to its type
+	String value = opName + "(" + columnName + ")";
+	if (opName.equals("count")) value += "::integer";
+	else if (opName.equals("avg")) value += "::double precision";
+	else if (opName.equals("sum")) {
+	    String type = Timeseries.columnType(fromDB, columnName, conn);
+	    if (type != null) value += "::" + type;
+	}
+	preparedQuery = "SELECT " + value + " AS value FROM " + fromDB;
     }
 
     protected String postfix() { return ""; }
@@ -0,0 +1,70 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.Timestamp;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+// As-of (last-value-before) join of two time series.  Each row of
+// the left series is paired with the latest row of the right series
+// whose time is not after the left row.
+class AsOfJoin {
+
+    // Builds the SQL form of the join.  The select expression may
+    // refer to the left row as "l" and to the matched right value
+    // as "r.value".
+    static String query(String left, String right, String rightColumn, String select) {
+	return "SELECT l.id AS id, l.time AS time, " + select + " AS value FROM " + left + " AS l, " +
+	    "LATERAL (SELECT " + rightColumn + " AS value FROM " + right +
+	    " WHERE " + right + ".time <= l.time ORDER BY " + right + ".time DESC LIMIT 1) AS r";
+    }
+
+    // Streaming form of the join over two time-ordered cursors.
+    // Left rows that precede every right row are skipped, as in
+    // the SQL form.
+    static <L,R,V> void merge(TimeCursor<L> left, TimeCursor<R> right,
+			      BiFunction<L,R,V> combiner, BiConsumer<Timestamp,V> sink) {
+	boolean hasRight = false, pending = right.next();
+	R last = null;
+	while (left.next()) {
+	    Timestamp t = left.time();
+	    while (pending && !right.time().after(t)) {
+		last = right.value();
+		hasRight = true;
+		pending = right.next();
+	    }
+	    if (hasRight) sink.accept(t, combiner.apply(left.value(), last));
+	}
+	left.close();
+	right.close();
+    }
+}
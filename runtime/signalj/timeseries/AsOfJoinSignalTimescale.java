@@ -0,0 +1,66 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.Timestamp;
+import java.util.function.BiConsumer;
+
+// Base class of binary operators on persistent signals.  The view
+// pairs every row of this signal with the value of the other signal
+// as of that row.
+public abstract class AsOfJoinSignalTimescale<T> extends TimescaleViewSignal<T> {
+
+    protected PersistentSignal other;
+    protected String leftColumn, rightColumn;
+
+    AsOfJoinSignalTimescale(PersistentSignal p, String baseName, String name, String fromName, String columnName) {
+	super(baseName, name, fromName, columnName);
+	this.other = p;
+	this.leftColumn = columnName==null ? "value" : columnName;
+	this.rightColumn = p instanceof TimescaleViewSignal ? "value" : p.name();
+	preparedQuery = AsOfJoin.query(fromDB, p.dbName(), rightColumn, combine("l." + leftColumn, "r.value"));
+    }
+
+    // SQL expression combining the left and the right values.
+    protected abstract String combine(String left, String right);
+
+    // The same combination evaluated in memory.
+    protected abstract T combine(Object left, Object right);
+
+    // Evaluates the join over [from, to) by merging both histories
+    // in memory, without creating the view.
+    public void join(Timestamp from, Timestamp to, BiConsumer<Timestamp,T> sink) {
+	TimeCursor<Object> left = cursor(fromDB, leftColumn, from, to, false);
+	TimeCursor<Object> right = ((TimescaleSignal)other).cursor(other.dbName(), rightColumn, from, to, true);
+	if (left == null || right == null) return;
+	AsOfJoin.<Object,Object,T>merge(left, right, this::combine, sink);
+    }
+}
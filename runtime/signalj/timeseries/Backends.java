@@ -0,0 +1,75 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.util.HashMap;
+
+// Selects the storage backend with the "backend" property, either a
+// registered name or the name of a class implementing StorageBackend
+// with a public no-argument constructor.  TimescaleDB is the default.
+public class Backends {
+
+    private static HashMap<String, StorageBackend> registered = new HashMap<String, StorageBackend>();
+    private static StorageBackend current = null;
+
+    static {
+	registered.put("timescale", new TimescaleBackend());
+	registered.put("local", new LocalBackend());
+	registered.put("memory", new MemoryBackend());
+    }
+
+    public static synchronized void register(String name, StorageBackend backend) {
+	registered.put(name, backend);
+    }
+
+    public static synchronized StorageBackend current() {
+	if (current == null) current = select(DBConfig.backend);
+	return current;
+    }
+
+    // replaces the backend before any instance is created
+    public static synchronized void use(StorageBackend backend) {
+	current = backend;
+    }
+
+    private static StorageBackend select(String name) {
+	if (name == null || name.isEmpty()) name = "timescale";
+	StorageBackend backend = registered.get(name);
+	if (backend != null) return backend;
+	try {
+	    return (StorageBackend)Class.forName(name).getConstructor().newInstance();
+	} catch (Exception e) {
+	    System.err.println("unknown storage backend " + name + ", using timescale");
+	    e.printStackTrace();
+	}
+	return registered.get("timescale");
+    }
+}
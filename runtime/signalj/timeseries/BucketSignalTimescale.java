@@ -0,0 +1,185 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.function.Consumer;
+import io.r2dbc.postgresql.api.Notification;
+
+// One row per time_bucket of the source, at the start of the bucket.
+// Materialized, the buckets of a column are kept by a continuous
+// aggregate, completed with the rows not refreshed yet.
+//
+// Without a time cursor the value is the aggregate of the latest
+// bucket, kept in memory: it is folded once from the rows of that
+// bucket and then updated from the insert notifications of the
+// instance, whose payload carries the new value of the column.  A
+// notification it cannot apply drops it until the next read.
+public class BucketSignalTimescale<T> extends TimescaleViewSignal<T> {
+
+    private String interval;
+    private String aggregate;
+    private String column;
+    private boolean materialized;
+    // the width of the buckets, or 0 when it depends on the calendar
+    private long width;
+    private SignalCodec source = null;
+
+    private boolean stale = true;
+    private long bucket, newest;
+    private Buckets.Accumulator latest = null;
+    private NotificationHub hub = null;
+    private Consumer<Notification> onInsert = this::inserted;
+
+    BucketSignalTimescale(String interval, String aggregate, boolean materialized, String baseName, String name, String fromName, String columnName) {
+	super(baseName, name, fromName, columnName);
+	this.interval = interval;
+	this.aggregate = Buckets.check(aggregate);
+	this.column = columnName==null ? "value" : columnName;
+	this.width = interval.matches("(?i).*\\b(mon|mons|month|months|year|years)\\b.*") ? 0 : Intervals.micros(interval);
+	// a continuous aggregate reads the hypertable itself, which a
+	// @sharedTable instance only has a view of
+	this.materialized = materialized && columnName != null && Timeseries.sharedTableOf(baseName, conn) == null;
+	String value = aggregate.equals("avg") ? "avg(" + column + ")::double precision" : Buckets.sql(aggregate, column);
+	String buckets = this.materialized ? "SELECT time, value FROM " + dbName + "__cagg" :
+	    "SELECT time_bucket(" + width() + ", time) AS time, " + value + " AS value FROM " + fromDB + " GROUP BY 1";
+	preparedQuery = "SELECT (row_number() OVER (ORDER BY time))::integer AS id, time, value FROM (" + buckets + ") AS b";
+	if (columnName != null) source = new SignalCodec(baseName, columnName);
+	hub = notifications();
+	hub.listen(baseName + "_channel", onInsert);
+    }
+
+    private String width() { return "INTERVAL '" + interval + "'"; }
+
+    public void dbgen() {
+	if (materialized) {
+	    // continuous aggregates cannot be created in a transaction
+	    try {
+		conn.setAutoCommit(true);
+		String value = aggregate.equals("avg") ? "avg(" + column + ")::double precision" : Buckets.sql(aggregate, column);
+		Statement stmt = conn.createStatement();
+		stmt.execute("CREATE MATERIALIZED VIEW IF NOT EXISTS " + dbName + "__cagg " +
+			     "WITH (timescaledb.continuous, timescaledb.materialized_only = false) AS " +
+			     "SELECT time_bucket(" + width() + ", time) AS time, " + value + " AS value FROM " + baseName + " GROUP BY 1 WITH NO DATA");
+		stmt.execute("SELECT add_continuous_aggregate_policy('" + dbName.toLowerCase() + "__cagg', start_offset => NULL, end_offset => " + width() +
+			     ", schedule_interval => " + width() + ", if_not_exists => true)");
+		stmt.close();
+	    } catch (SQLException e) {
+		e.printStackTrace();
+	    }
+	}
+	super.dbgen();
+    }
+
+    protected String postfix() { return " ORDER BY time DESC LIMIT 1"; }
+
+    public T __signalj__get() {
+	if (timeCursor != null && codec.isTimeseries(conn)) return valueWithTimeCursor();
+	synchronized (this) {
+	    if (stale) load();
+	    return latest == null ? null : (T)latest.result();
+	}
+    }
+
+    // folds the rows of the latest bucket of the source
+    private void load() {
+	latest = null;
+	try {
+	    PreparedStatement stmt = conn.prepareStatement("SELECT time, " + column + ", time_bucket(" + width() + ", time) FROM " + fromDB +
+							   " WHERE time >= (SELECT time_bucket(" + width() + ", max(time)) FROM " + fromDB + ") ORDER BY time");
+	    ResultSet rs = stmt.executeQuery();
+	    while (rs.next()) {
+		if (latest == null) {
+		    latest = new Buckets.Accumulator(aggregate);
+		    bucket = HistoryCache.micros(rs.getTimestamp(3));
+		}
+		newest = HistoryCache.micros(rs.getTimestamp(1));
+		latest.add(rs.getObject(2));
+	    }
+	    rs.close();
+	    stmt.close();
+	    stale = latest == null;
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	}
+    }
+
+    // A row after those folded is added to the latest bucket or starts
+    // the next one; a late row of an older bucket leaves it as it is.
+    private synchronized void inserted(Notification n) {
+	if (stale) return;
+	NotificationPayload payload = NotificationPayload.parse(n.getParameter());
+	if (payload.time() == null || width == 0 || source == null || !payload.hasColumn(column)) {
+	    stale = true;
+	    return;
+	}
+	long t = HistoryCache.micros(payload.time());
+	long b = Buckets.start(t, width);
+	if (b < bucket) return;
+	if (t <= newest) {
+	    // may have been folded already, or come before the last
+	    stale = true;
+	    return;
+	}
+	try {
+	    String text = payload.column(column);
+	    Object v = text == null ? null : source.valueCodec(conn).parse(text);
+	    if (b > bucket) {
+		latest = new Buckets.Accumulator(aggregate);
+		bucket = b;
+	    }
+	    latest.add(v);
+	    newest = t;
+	} catch (RuntimeException e) {
+	    stale = true;
+	}
+    }
+
+    public void discard() {
+	if (hub != null) hub.unlisten(baseName + "_channel", onInsert);
+	super.discard();
+	if (materialized) {
+	    try {
+		connectDB(baseName);
+		Statement stmt = conn.createStatement();
+		stmt.execute("DROP MATERIALIZED VIEW IF EXISTS " + dbName.toLowerCase() + "__cagg");
+		stmt.close();
+		conn.close();
+	    } catch (SQLException e) {
+		e.printStackTrace();
+	    }
+	}
+    }
+}
@@ -0,0 +1,133 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.util.Vector;
+
+// time_bucket evaluated in memory, for the backends without SQL.
+class Buckets {
+
+    // the origin time_bucket uses for intervals without months,
+    // 2000-01-03 00:00 UTC, in epoch microseconds
+    static final long ORIGIN = 946857600000000L;
+
+    static final String[] AGGREGATES = { "avg", "sum", "count", "max", "min", "first", "last" };
+
+    static long start(long micros, long width) {
+	return ORIGIN + Math.floorDiv(micros - ORIGIN, width) * width;
+    }
+
+    static String check(String aggregate) {
+	for (String a : AGGREGATES) {
+	    if (a.equals(aggregate)) return a;
+	}
+	throw new IllegalArgumentException("unknown aggregate: " + aggregate);
+    }
+
+    // the SQL expression of an aggregate over a column
+    static String sql(String aggregate, String column) {
+	check(aggregate);
+	if (aggregate.equals("first") || aggregate.equals("last")) return aggregate + "(" + column + ", time)";
+	return aggregate + "(" + column + ")";
+    }
+
+    // Folds rows in time order into one row per bucket, at its start.
+    static RangeResult fold(TimeCursor<Object> rows, long width, String aggregate, RangeResult reuse) {
+	check(aggregate);
+	Vector<Long> times = new Vector<Long>();
+	Vector<Object> values = new Vector<Object>();
+	long bucket = 0;
+	boolean open = false;
+	Accumulator acc = new Accumulator(aggregate);
+	while (rows.next()) {
+	    long b = start(HistoryCache.micros(rows.time()), width);
+	    if (open && b != bucket) {
+		times.add(bucket);
+		values.add(acc.result());
+		acc = new Accumulator(aggregate);
+	    }
+	    bucket = b;
+	    open = true;
+	    acc.add(rows.value());
+	}
+	rows.close();
+	if (open) {
+	    times.add(bucket);
+	    values.add(acc.result());
+	}
+	return collect(times, values, reuse);
+    }
+
+    static RangeResult collect(Vector<Long> times, Vector<Object> values, RangeResult reuse) {
+	int kind = RangeResult.OBJECT;
+	for (Object v : values) {
+	    if (v != null) {
+		kind = RangeResult.kindOf(v);
+		break;
+	    }
+	}
+	RangeResult r = RangeResult.reuse(reuse, kind);
+	for (int i = 0; i < times.size(); i++) r.add(times.elementAt(i), values.elementAt(i));
+	return r;
+    }
+
+    // one aggregate over the rows of a bucket, nulls skipped as in SQL
+    static class Accumulator {
+	private String aggregate;
+	private long count = 0;
+	private Object sum = null, min = null, max = null, first = null, last = null;
+
+	Accumulator(String aggregate) {
+	    this.aggregate = aggregate;
+	}
+
+	void add(Object v) {
+	    if (v == null) return;
+	    if (count++ == 0) first = v;
+	    last = v;
+	    if (v instanceof Number) sum = StoredViewSignal.plus(sum, StoredViewSignal.widen(v));
+	    if (min == null || ((Comparable)v).compareTo(min) < 0) min = v;
+	    if (max == null || ((Comparable)v).compareTo(max) > 0) max = v;
+	}
+
+	Object result() {
+	    switch (aggregate) {
+	    case "avg": return count == 0 || sum == null ? null : ((Number)sum).doubleValue() / count;
+	    case "sum": return sum;
+	    case "count": return count;
+	    case "max": return max;
+	    case "min": return min;
+	    case "first": return first;
+	    }
+	    return last;
+	}
+    }
+}
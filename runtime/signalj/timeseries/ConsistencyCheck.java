@@ -0,0 +1,130 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Vector;
+
+// Finds the upstream rows of a checkpoint window that have no
+// counterpart downstream.  All inputs are cursors ordered by time, so
+// one pass over each suffices; the downstream timestamps are kept in
+// a sorted long[] of epoch microseconds.
+class ConsistencyCheck {
+
+    // Every upstream timestamp must appear downstream.  The upstreams
+    // are merged in time order; each missing timestamp is reported once.
+    static Vector<Timestamp> missing(TimeCursor<?> local, List<TimeCursor<?>> upstreams) {
+	long[] here = times(local);
+	Vector<Timestamp> retval = new Vector<Timestamp>();
+	PriorityQueue<TimeCursor<?>> heap =
+	    new PriorityQueue<TimeCursor<?>>(Math.max(upstreams.size(), 1), Comparator.comparing(c -> c.time()));
+	for (TimeCursor<?> c : upstreams) {
+	    if (c.next()) heap.add(c);
+	}
+	int j = 0;
+	long prev = Long.MIN_VALUE;
+	while (!heap.isEmpty()) {
+	    TimeCursor<?> c = heap.poll();
+	    Timestamp t = c.time();
+	    if (c.next()) heap.add(c);
+	    long m = HistoryCache.micros(t);
+	    if (m == prev) continue;
+	    prev = m;
+	    while (j < here.length && here[j] < m) j++;
+	    if (j == here.length || here[j] != m) retval.add(t);
+	}
+	return retval;
+    }
+
+    // The i-th rows of the upstreams form a tuple, which is missing if
+    // none of its timestamps appears downstream; it is then reported
+    // by its earliest timestamp.  The upstreams need not have the same
+    // number of rows: rows without a complete tuple are not checked.
+    static Vector<Timestamp> missingTuples(TimeCursor<?> local, List<TimeCursor<?>> upstreams) {
+	long[] here = times(local);
+	Vector<Timestamp> retval = new Vector<Timestamp>();
+	int[] pos = new int[upstreams.size()];
+	if (upstreams.isEmpty()) return retval;
+	while (true) {
+	    for (TimeCursor<?> c : upstreams) {
+		if (!c.next()) {
+		    for (TimeCursor<?> d : upstreams) d.close();
+		    return retval;
+		}
+	    }
+	    boolean found = false;
+	    Timestamp tmin = null;
+	    for (int i = 0; i < pos.length; i++) {
+		Timestamp t = upstreams.get(i).time();
+		long m = HistoryCache.micros(t);
+		while (pos[i] < here.length && here[pos[i]] < m) pos[i]++;
+		if (pos[i] < here.length && here[pos[i]] == m) found = true;
+		if (tmin == null || tmin.after(t)) tmin = t;
+	    }
+	    if (!found) retval.add(tmin);
+	}
+    }
+
+    // a cursor over timestamps already in memory, in ascending order
+    static TimeCursor<Timestamp> cursor(List<Timestamp> times) {
+	return new TimeCursor<Timestamp>() {
+	    private Iterator<Timestamp> it = times.iterator();
+	    private Timestamp time = null;
+
+	    public boolean next() {
+		if (!it.hasNext()) return false;
+		time = it.next();
+		return true;
+	    }
+
+	    public Timestamp time() { return time; }
+
+	    public Timestamp value() { return time; }
+
+	    public void close() { }
+	};
+    }
+
+    private static long[] times(TimeCursor<?> c) {
+	long[] times = new long[64];
+	int size = 0;
+	while (c.next()) {
+	    if (size == times.length) times = Arrays.copyOf(times, size * 2);
+	    times[size++] = HistoryCache.micros(c.time());
+	}
+	return Arrays.copyOf(times, size);
+    }
+}
@@ -36,26 +36,40 @@ import java.io.IOException;
 import java.util.Properties;
 import java.util.Map;
 
+// The SignalJ properties.  They are read from
+// ~/signalj/properties/java.properties, or the file named by the system
+// property signalj.properties, and each may be overridden by a system
+// property signalj.<name>.  The file is optional; without it the
+// runtime can still run on the local or memory backend, e.g.
+// -Dsignalj.backend=memory.
 class DBConfig {
 
     static Properties properties = new Properties();
     static String pass;
     
     static {
-	try {
-	    Map env = System.getenv();
-	    pass = env.get("HOME") + "/signalj/properties/java.properties";
-	    InputStream istream = new FileInputStream(pass);
+	Map env = System.getenv();
+	pass = System.getProperty("signalj.properties", env.get("HOME") + "/signalj/properties/java.properties");
+	try (InputStream istream = new FileInputStream(pass)) {
 	    properties.load(istream);
-	    url = properties.getProperty("url");
-	    user = properties.getProperty("user");
-	    password = properties.getProperty("password");
-	    admin = properties.getProperty("admin");
-	    adminpw = properties.getProperty("adminpw");
-	    distributed = properties.getProperty("distributed");
 	} catch (IOException e) {
-	    System.err.println("unable to load the SignalJ property file");
+	    if (System.getProperty("signalj.backend") == null) {
+		System.err.println("unable to load the SignalJ property file");
+	    }
 	}
+	for (String key : System.getProperties().stringPropertyNames()) {
+	    if (key.startsWith("signalj.")) properties.setProperty(key.substring(8), System.getProperty(key));
+	}
+	url = properties.getProperty("url");
+	user = properties.getProperty("user");
+	password = properties.getProperty("password");
+	admin = properties.getProperty("admin");
+	adminpw = properties.getProperty("adminpw");
+	distributed = properties.getProperty("distributed");
+	reactive = properties.getProperty("reactive");
+	directoryTTL = properties.getProperty("directoryTTL");
+	backend = properties.getProperty("backend");
+	localDir = properties.getProperty("localDir");
     }
 	
     static String url;
@@ -64,4 +78,8 @@ class DBConfig {
     static String admin;
     static String adminpw;
     static String distributed;
+    static String reactive;
+    static String directoryTTL;
+    static String backend;
+    static String localDir;
 }
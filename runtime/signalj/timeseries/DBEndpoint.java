@@ -0,0 +1,72 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+// The JDBC url and credentials of the database holding a signal.
+class DBEndpoint {
+
+    final String url;
+    final String user;
+    final String password;
+
+    DBEndpoint(String url, String user, String password) {
+	this.url = url;
+	this.user = user;
+	this.password = password;
+    }
+
+    // the endpoint in the configuration file
+    static DBEndpoint configured() {
+	return new DBEndpoint(DBConfig.url, DBConfig.user, DBConfig.password);
+    }
+
+    Connection connect() throws SQLException {
+	return DriverManager.getConnection(url, user, password);
+    }
+
+    public boolean equals(Object o) {
+	if (!(o instanceof DBEndpoint)) return false;
+	DBEndpoint e = (DBEndpoint)o;
+	return url.equals(e.url) && String.valueOf(user).equals(String.valueOf(e.user));
+    }
+
+    public int hashCode() {
+	return url.hashCode() * 31 + String.valueOf(user).hashCode();
+    }
+
+    public String toString() {
+	return user + "@" + url;
+    }
+}
@@ -0,0 +1,156 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// In-memory index of the dependencies between signal class instances,
+// kept up to date as upstreams are added and switched.  Besides the
+// direct upstreams and downstreams, it maintains the connected
+// component of each instance and caches the most-downstream instances
+// of each component, so that a switch need not walk the graph.
+class DependencyGraph {
+
+    private static HashMap<Synchronizer, HashSet<Synchronizer>> ups =
+	new HashMap<Synchronizer, HashSet<Synchronizer>>();
+    private static HashMap<Synchronizer, HashSet<Synchronizer>> downs =
+	new HashMap<Synchronizer, HashSet<Synchronizer>>();
+    private static HashMap<Synchronizer, Component> components =
+	new HashMap<Synchronizer, Component>();
+
+    private static class Component {
+	HashSet<Synchronizer> members = new HashSet<Synchronizer>();
+	List<Synchronizer> sinks = null; // most downstreams, null if not computed
+    }
+
+    static synchronized void link(Synchronizer up, Synchronizer down) {
+	if (!edges(ups, down).add(up)) return;
+	edges(downs, up).add(down);
+	Component a = component(up), b = component(down);
+	if (a != b) {
+	    if (a.members.size() < b.members.size()) {
+		Component t = a;
+		a = b;
+		b = t;
+	    }
+	    for (Synchronizer s : b.members) components.put(s, a);
+	    a.members.addAll(b.members);
+	}
+	a.sinks = null;
+    }
+
+    // The component is split if up and down are no longer connected.
+    static synchronized void unlink(Synchronizer up, Synchronizer down) {
+	if (!edges(ups, down).remove(up)) return;
+	edges(downs, up).remove(down);
+	Component c = component(up);
+	c.sinks = null;
+	if (reachable(up).contains(down)) return;
+	Component d = new Component();
+	d.members.addAll(reachable(down));
+	c.members.removeAll(d.members);
+	for (Synchronizer s : d.members) components.put(s, d);
+    }
+
+    static synchronized void remove(Synchronizer s) {
+	for (Synchronizer up : new ArrayList<Synchronizer>(edges(ups, s))) unlink(up, s);
+	for (Synchronizer down : new ArrayList<Synchronizer>(edges(downs, s))) unlink(s, down);
+	Component c = components.remove(s);
+	if (c != null) {
+	    c.members.remove(s);
+	    c.sinks = null;
+	}
+	ups.remove(s);
+	downs.remove(s);
+    }
+
+    static synchronized Set<Synchronizer> upstreams(Synchronizer s) {
+	return new HashSet<Synchronizer>(edges(ups, s));
+    }
+
+    static synchronized Set<Synchronizer> downstreams(Synchronizer s) {
+	return new HashSet<Synchronizer>(edges(downs, s));
+    }
+
+    // the instances connected to s in either direction, s included
+    static synchronized Set<Synchronizer> componentOf(Synchronizer s) {
+	return new HashSet<Synchronizer>(component(s).members);
+    }
+
+    // the instances of the component of s without downstreams
+    static synchronized List<Synchronizer> mostDownstreams(Synchronizer s) {
+	Component c = component(s);
+	if (c.sinks == null) {
+	    c.sinks = new ArrayList<Synchronizer>();
+	    for (Synchronizer m : c.members) {
+		if (edges(downs, m).isEmpty()) c.sinks.add(m);
+	    }
+	}
+	return new ArrayList<Synchronizer>(c.sinks);
+    }
+
+    private static Component component(Synchronizer s) {
+	Component c = components.get(s);
+	if (c == null) {
+	    c = new Component();
+	    c.members.add(s);
+	    components.put(s, c);
+	}
+	return c;
+    }
+
+    private static HashSet<Synchronizer> edges(HashMap<Synchronizer, HashSet<Synchronizer>> m, Synchronizer s) {
+	HashSet<Synchronizer> e = m.get(s);
+	if (e == null) {
+	    e = new HashSet<Synchronizer>();
+	    m.put(s, e);
+	}
+	return e;
+    }
+
+    private static Set<Synchronizer> reachable(Synchronizer from) {
+	HashSet<Synchronizer> seen = new HashSet<Synchronizer>();
+	ArrayDeque<Synchronizer> todo = new ArrayDeque<Synchronizer>();
+	seen.add(from);
+	todo.add(from);
+	while (!todo.isEmpty()) {
+	    Synchronizer s = todo.poll();
+	    for (Synchronizer t : edges(ups, s)) if (seen.add(t)) todo.add(t);
+	    for (Synchronizer t : edges(downs, s)) if (seen.add(t)) todo.add(t);
+	}
+	return seen;
+    }
+}
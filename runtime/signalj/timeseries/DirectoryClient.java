@@ -0,0 +1,150 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Resolves the database of a signal class instance; every connection
+// to an instance's table is placed through resolve().  With shards
+// configured, the instance is placed by ShardRouter.  In distributed
+// mode the endpoints come from the kvs table of the directory service,
+// which is queried over one shared connection; the answers are cached
+// for directoryTTL milliseconds (default 60000).  Otherwise every
+// instance lives in the configured database.
+class DirectoryClient {
+
+    private static final long DEFAULT_TTL = 60000;
+
+    private static class Entry {
+	DBEndpoint endpoint;
+	long expires;
+
+	Entry(DBEndpoint endpoint, long expires) {
+	    this.endpoint = endpoint;
+	    this.expires = expires;
+	}
+    }
+
+    private static ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<String, Entry>();
+    private static Connection directory = null;
+
+    static boolean distributed() {
+	return DBConfig.distributed != null && DBConfig.distributed.equals("true");
+    }
+
+    // the endpoint of an instance, or null if the directory has none
+    static DBEndpoint resolve(String id) {
+	ShardRouter router = ShardRouter.configured();
+	if (router != null) return router.route(id);
+	if (!distributed()) return DBEndpoint.configured();
+	String key = id.toLowerCase();
+	Entry e = cache.get(key);
+	if (e != null && e.expires > System.currentTimeMillis()) return e.endpoint;
+	List<String> ids = new ArrayList<String>();
+	ids.add(key);
+	prefetch(ids);
+	e = cache.get(key);
+	return e == null ? null : e.endpoint;
+    }
+
+    // Loads the endpoints of many instances with one query, e.g.
+    // before a node creates its signal class instances.
+    static void prefetch(Collection<String> ids) {
+	if (ShardRouter.configured() != null || !distributed() || ids.isEmpty()) return;
+	String[] keys = ids.stream().map(String::toLowerCase).toArray(String[]::new);
+	long expires = System.currentTimeMillis() + ttl();
+	synchronized (DirectoryClient.class) {
+	    try {
+		Connection conn = directory();
+		Array array = conn.createArrayOf("text", keys);
+		PreparedStatement stmt = conn.prepareStatement("SELECT id,url,userid,passwd FROM kvs WHERE id = ANY(?)");
+		stmt.setArray(1, array);
+		ResultSet rs = stmt.executeQuery();
+		while (rs.next()) {
+		    String url = rs.getString("url").replaceAll("postgres", "jdbc:postgresql");
+		    DBEndpoint endpoint = new DBEndpoint(url, rs.getString("userid"), rs.getString("passwd"));
+		    cache.put(rs.getString("id").toLowerCase(), new Entry(endpoint, expires));
+		}
+		rs.close();
+		stmt.close();
+		array.free();
+	    } catch (SQLException e) {
+		e.printStackTrace();
+		closeDirectory();
+	    }
+	}
+    }
+
+    // the databases that may hold instances
+    static List<DBEndpoint> endpoints() {
+	ShardRouter router = ShardRouter.configured();
+	if (router != null) return router.nodes();
+	List<DBEndpoint> retval = new ArrayList<DBEndpoint>();
+	retval.add(DBEndpoint.configured());
+	return retval;
+    }
+
+    static void invalidate(String id) {
+	cache.remove(id.toLowerCase());
+    }
+
+    // the shared connection to the directory service
+    static synchronized Connection directory() throws SQLException {
+	if (directory == null || directory.isClosed()) {
+	    directory = DBEndpoint.configured().connect();
+	}
+	return directory;
+    }
+
+    private static synchronized void closeDirectory() {
+	try {
+	    if (directory != null) directory.close();
+	} catch (SQLException e) { }
+	directory = null;
+    }
+
+    private static long ttl() {
+	try {
+	    if (DBConfig.directoryTTL != null) return Long.parseLong(DBConfig.directoryTTL);
+	} catch (NumberFormatException e) {
+	    System.err.println("invalid directoryTTL: " + DBConfig.directoryTTL);
+	}
+	return DEFAULT_TTL;
+    }
+}
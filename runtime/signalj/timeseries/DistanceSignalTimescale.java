@@ -30,19 +30,19 @@
 
 package signalj.timeseries;
 
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
-
-public class DistanceSignalTimescale extends TimescaleViewSignal<Double> {
+public class DistanceSignalTimescale extends AsOfJoinSignalTimescale<Double> {
 
     DistanceSignalTimescale(PersistentSignal p, String baseName, String name, String fromName, String columnName) {
-	super(baseName, name, fromName, columnName);
-	String column = columnName==null ? "value" : columnName;
-	preparedQuery = "SELECT " + fromDB + ".id AS id, " + fromDB + ".time AS time, " +
-	    "sqrt(" + fromDB + "." + column + "*" + fromDB + "." + column + "+" +
-	    p.dbName() + "." + column + "*" + p.dbName() + "." + column + ") AS value FROM " +
-	    fromDB + "," + p.dbName() + " WHERE " +
-	    fromDB + ".time = " + p.dbName() + ".time";
+	super(p, baseName, name, fromName, columnName);
+    }
+
+    protected String combine(String left, String right) {
+	return "sqrt(" + left + "*" + left + "+" + right + "*" + right + ")";
+    }
+
+    protected Double combine(Object left, Object right) {
+	double l = ((Number)left).doubleValue(), r = ((Number)right).doubleValue();
+	return Math.sqrt(l*l + r*r);
     }
 
 }
@@ -0,0 +1,87 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.Timestamp;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+// In-process counterpart of a notification channel, used by the
+// backends without a database server.  Events are delivered to the
+// listeners in order on a dispatcher thread, never on the thread that
+// published them, like the notifications of NotificationHub.
+class EventChannel {
+
+    private static ExecutorService dispatcher = Executors.newCachedThreadPool(r -> {
+	    Thread t = new Thread(r, "signalj-events");
+	    t.setDaemon(true);
+	    return t;
+	});
+
+    private CopyOnWriteArrayList<Consumer<Timestamp>> listeners = new CopyOnWriteArrayList<Consumer<Timestamp>>();
+    private ConcurrentLinkedQueue<Timestamp> pending = new ConcurrentLinkedQueue<Timestamp>();
+    private AtomicBoolean running = new AtomicBoolean(false);
+
+    void listen(Consumer<Timestamp> c) {
+	listeners.addIfAbsent(c);
+    }
+
+    void unlisten(Consumer<Timestamp> c) {
+	listeners.remove(c);
+    }
+
+    void publish(Timestamp time) {
+	if (listeners.isEmpty()) return;
+	pending.offer(time);
+	if (running.compareAndSet(false, true)) dispatcher.execute(this::drain);
+    }
+
+    private void drain() {
+	while (true) {
+	    Timestamp t;
+	    while ((t = pending.poll()) != null) {
+		for (Consumer<Timestamp> c : listeners) {
+		    try {
+			c.accept(t);
+		    } catch (Exception e) {
+			e.printStackTrace();
+		    }
+		}
+	    }
+	    running.set(false);
+	    if (pending.isEmpty() || !running.compareAndSet(false, true)) return;
+	}
+    }
+}
@@ -0,0 +1,93 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+// Rows of one column preloaded into memory.  A cache covers the time
+// cursors in (from, to]: for those, the last row before the cursor
+// is known without asking the database.
+class HistoryCache<T> {
+
+    private long[] times = new long[4];
+    private Object[] values = new Object[4];
+    private int size = 0;
+    private long from, to;
+    private Timestamp latest;
+
+    // from is the time of the row preceding the preloaded range, or
+    // Long.MIN_VALUE if there is no such row.
+    HistoryCache(long from, long to, Timestamp latest) {
+	this.from = from;
+	this.to = to;
+	this.latest = latest;
+    }
+
+    // rows must be added in ascending order of time
+    void add(long time, T value) {
+	if (size == times.length) {
+	    times = Arrays.copyOf(times, size * 2);
+	    values = Arrays.copyOf(values, size * 2);
+	}
+	times[size] = time;
+	values[size++] = value;
+    }
+
+    boolean covers(Timestamp cursor) {
+	long c = micros(cursor);
+	return from < c && c <= to;
+    }
+
+    // the value of the last row strictly before the cursor, or null
+    T at(Timestamp cursor) {
+	long c = micros(cursor);
+	int lo = 0, hi = size;
+	while (lo < hi) {
+	    int mid = (lo + hi) >>> 1;
+	    if (times[mid] < c) lo = mid + 1;
+	    else hi = mid;
+	}
+	return lo == 0 ? null : (T)values[lo-1];
+    }
+
+    Timestamp latest() { return latest; }
+
+    static long micros(Timestamp ts) {
+	return Math.floorDiv(ts.getTime(), 1000L) * 1000000L + ts.getNanos() / 1000;
+    }
+
+    static Timestamp timestamp(long micros) {
+	Timestamp ts = new Timestamp(Math.floorDiv(micros, 1000000L) * 1000);
+	ts.setNanos((int)Math.floorMod(micros, 1000000L) * 1000);
+	return ts;
+    }
+}
@@ -0,0 +1,112 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Approximate count of distinct values (Flajolet et al.), with 2^12
+// registers: a standard error of about 1.6% in 4 KB.  Values are
+// hashed by their text, so equal values read through different
+// codecs count once.  Merging takes the maximum of each register and
+// adding a value twice has no effect.
+public class HyperLogLog implements Sketch {
+
+    private static final int P = 12, M = 1 << P;
+
+    private byte[] registers;
+
+    public HyperLogLog() {
+	registers = new byte[M];
+    }
+
+    private HyperLogLog(byte[] registers) {
+	this.registers = registers;
+    }
+
+    public void add(Object value) {
+	if (value == null) return;
+	long h = hash(String.valueOf(value));
+	int index = (int)(h >>> (64 - P));
+	// the leading zeros are counted in the remaining 64 - P bits
+	byte rank = (byte)(Long.numberOfLeadingZeros((h << P) | (1L << (P - 1))) + 1);
+	if (rank > registers[index]) registers[index] = rank;
+    }
+
+    public void merge(Sketch other) {
+	byte[] r = ((HyperLogLog)other).registers;
+	for (int i = 0; i < M; i++) {
+	    if (r[i] > registers[i]) registers[i] = r[i];
+	}
+    }
+
+    public long estimate() {
+	double sum = 0;
+	int zeros = 0;
+	for (byte r : registers) {
+	    sum += 1.0 / (1L << r);
+	    if (r == 0) zeros++;
+	}
+	double alpha = 0.7213 / (1 + 1.079 / M);
+	double e = alpha * M * M / sum;
+	// linear counting for small cardinalities
+	if (e <= 2.5 * M && zeros > 0) e = M * Math.log((double)M / zeros);
+	return Math.round(e);
+    }
+
+    public Sketch copy() {
+	return new HyperLogLog(Arrays.copyOf(registers, M));
+    }
+
+    public byte[] toBytes() {
+	return Arrays.copyOf(registers, M);
+    }
+
+    static HyperLogLog fromBytes(byte[] bytes) {
+	return new HyperLogLog(Arrays.copyOf(bytes, M));
+    }
+
+    // 64-bit FNV-1a of the UTF-8 bytes, finished with the mixer of
+    // MurmurHash3 to spread the high bits
+    private static long hash(String s) {
+	long h = 0xcbf29ce484222325L;
+	for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+	    h ^= b & 0xff;
+	    h *= 0x100000001b3L;
+	}
+	h ^= h >>> 33;
+	h *= 0xff51afd7ed558ccdL;
+	h ^= h >>> 33;
+	h *= 0xc4ceb9fe1a85ec53L;
+	h ^= h >>> 33;
+	return h;
+    }
+}
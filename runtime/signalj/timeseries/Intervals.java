@@ -0,0 +1,75 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+// Lengths of PostgreSQL interval literals such as '5 minutes' or
+// '1 hour 30 minutes', for the backends that evaluate views in
+// memory.  Months and years count as 30 and 365 days.
+class Intervals {
+
+    static long micros(String interval) {
+	String[] tokens = interval.trim().toLowerCase().split("\\s+");
+	long retval = 0;
+	for (int i = 0; i + 1 < tokens.length; i += 2) {
+	    double n = Double.parseDouble(tokens[i]);
+	    retval += (long)(n * unit(tokens[i+1]));
+	}
+	if (tokens.length % 2 == 1) {
+	    // a bare number, or hh:mm:ss
+	    String last = tokens[tokens.length - 1];
+	    if (last.contains(":")) {
+		String[] hms = last.split(":");
+		double secs = 0;
+		for (String f : hms) secs = secs * 60 + Double.parseDouble(f);
+		retval += (long)(secs * 1000000L);
+	    } else {
+		retval += (long)(Double.parseDouble(last) * 1000000L);
+	    }
+	}
+	return retval;
+    }
+
+    private static long unit(String u) {
+	if (u.endsWith("s") && u.length() > 2) u = u.substring(0, u.length() - 1);
+	switch (u) {
+	case "microsecond": case "us": return 1L;
+	case "millisecond": case "ms": return 1000L;
+	case "second": case "sec": return 1000000L;
+	case "minute": case "min": return 60 * 1000000L;
+	case "hour": case "h": return 3600 * 1000000L;
+	case "day": case "d": return 86400 * 1000000L;
+	case "week": return 7 * 86400 * 1000000L;
+	case "month": case "mon": return 30 * 86400 * 1000000L;
+	case "year": return 365 * 86400 * 1000000L;
+	}
+	throw new IllegalArgumentException("unknown interval unit: " + u);
+    }
+}
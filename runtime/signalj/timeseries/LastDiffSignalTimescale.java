@@ -40,7 +40,11 @@ public class LastDiffSignalTimescale<T> extends TimescaleViewSignal<T> {
 	String column = columnName==null ? "value" : columnName;
 	String columnExp = "x." + column + " - y." + column + " AS value ";
 	String ycolumns = "time," + column + " AS value";
-	preparedQuery = "SELECT x.id AS id, x.time AS time," + columnExp + "FROM " + fromDB + " AS x, (SELECT id,time," + column + " FROM " + fromDB + " OFFSET " + offset + ") AS y WHERE x.id = y.id - " + offset;
+	// ids are consecutive only in a table of its own: a @sharedTable
+	// numbers the rows of all instances, and the rows of a rollup
+	// (@downsample) have none
+	preparedQuery = "SELECT id, time, value FROM (SELECT id, time, " + column + " - lead(" + column + ", " + offset + ") OVER (ORDER BY time) AS value FROM " + fromDB + ") AS x" +
+	    " WHERE value IS NOT NULL";
 	//	preparedQuery = "SELECT x.time AS time, " + columnExp + "FROM (SELECT row_number() over (), * FROM " + fromDB +
 	//	    " ) AS x, (SELECT row_number() over (), " + ycolumns + " FROM " + fromDB +
 	//	    " OFFSET " + offset + " ) AS y WHERE x.row_number = y.row_number - 1";
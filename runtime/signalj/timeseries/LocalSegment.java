@@ -0,0 +1,306 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+// One append-only segment of a LocalSeries: up to ROWS rows, each
+// column in its own memory-mapped file.  The time column <n>.time
+// starts with a header (rows, bytes used, first and last time) and
+// holds the differences between consecutive times in microseconds as
+// variable-length integers.  Every STRIDE-th row is kept in a sparse
+// index, rebuilt when the segment is opened, so that a time cursor is
+// found by a binary search and a short scan.  Value columns <n>.<name>
+// hold a null flag and a fixed-width value per row; TEXT values are
+// written to <n>.<name>.heap and referred to by offset and length.
+class LocalSegment {
+
+    static final int ROWS = 1 << 16, STRIDE = 64;
+    static final int SMALLINT = 0, INTEGER = 1, BIGINT = 2, REAL = 3, DOUBLE = 4, BOOLEAN = 5, TEXT = 6;
+    private static final int HEADER = 24, MAX_VARINT = 10;
+    private static final int[] WIDTH = { 2, 4, 8, 4, 8, 1, 12 };
+
+    private FileChannel timeFile;
+    private MappedByteBuffer time;
+    private FileChannel[] columnFiles, heaps;
+    private MappedByteBuffer[] columns;
+    private int[] types;
+    private int rows, used;
+    private long first, last;
+    private long[] idxTime = new long[ROWS / STRIDE];
+    private int[] idxPos = new int[ROWS / STRIDE];
+    private Object[][] stats; // count, sum, min, max per column, once full
+
+    LocalSegment(File dir, int n, String[] names, int[] types) throws IOException {
+	this.types = types;
+	timeFile = new RandomAccessFile(new File(dir, n + ".time"), "rw").getChannel();
+	time = timeFile.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long)ROWS * MAX_VARINT);
+	columnFiles = new FileChannel[names.length];
+	heaps = new FileChannel[names.length];
+	columns = new MappedByteBuffer[names.length];
+	stats = new Object[names.length][];
+	for (int i = 0; i < names.length; i++) {
+	    columnFiles[i] = new RandomAccessFile(new File(dir, n + "." + names[i]), "rw").getChannel();
+	    columns[i] = columnFiles[i].map(FileChannel.MapMode.READ_WRITE, 0, (long)ROWS * (1 + WIDTH[types[i]]));
+	    if (types[i] == TEXT) heaps[i] = new RandomAccessFile(new File(dir, n + "." + names[i] + ".heap"), "rw").getChannel();
+	}
+	rows = time.getInt(0);
+	used = Math.max(time.getInt(4), HEADER);
+	first = time.getLong(8);
+	last = time.getLong(16);
+	// rebuilds the sparse index
+	long t = first;
+	int pos = HEADER;
+	for (int r = 0; r < rows; r++) {
+	    if (r > 0) {
+		t += varint(pos);
+		pos = skip(pos);
+	    } else {
+		pos = skip(pos);
+	    }
+	    if (r % STRIDE == 0) {
+		idxTime[r / STRIDE] = t;
+		idxPos[r / STRIDE] = pos;
+	    }
+	}
+    }
+
+    static int typeOf(String sqlType) {
+	String t = sqlType.trim().toUpperCase();
+	if (t.equals("SMALLINT")) return SMALLINT;
+	if (t.equals("INTEGER") || t.equals("INT")) return INTEGER;
+	if (t.equals("BIGINT")) return BIGINT;
+	if (t.equals("REAL")) return REAL;
+	if (t.startsWith("DOUBLE")) return DOUBLE;
+	if (t.equals("BOOLEAN")) return BOOLEAN;
+	return TEXT;
+    }
+
+    int rows() { return rows; }
+
+    boolean full() { return rows == ROWS; }
+
+    long first() { return first; }
+
+    long last() { return last; }
+
+    // times must not decrease; the caller checks both
+    void append(long t, Object[] values) throws IOException {
+	for (int i = 0; i < columns.length; i++) put(i, rows, values[i]);
+	// the first row is written as a difference from itself
+	long delta = rows == 0 ? 0 : t - last;
+	int pos = putVarint(used, delta);
+	if (rows % STRIDE == 0) {
+	    idxTime[rows / STRIDE] = t;
+	    idxPos[rows / STRIDE] = pos;
+	}
+	if (rows == 0) {
+	    first = t;
+	    time.putLong(8, first);
+	}
+	used = pos;
+	last = t;
+	time.putInt(4, used);
+	time.putLong(16, last);
+	// the row becomes visible last
+	time.putInt(0, ++rows);
+    }
+
+    // the last row with a time before c, or -1
+    int lastBefore(long c) {
+	if (rows == 0 || first >= c) return -1;
+	if (last < c) return rows - 1;
+	Scan s = scan(c);
+	return s.row - 1;
+    }
+
+    long time(int row) {
+	int k = row / STRIDE;
+	Scan s = new Scan(k * STRIDE, idxTime[k], idxPos[k]);
+	while (s.row < row) s.advance();
+	return s.time;
+    }
+
+    // the times of rows [from, to), from < to, read on from the sparse
+    // index entry at or before from
+    long[] times(int from, int to) {
+	long[] retval = new long[to - from];
+	int k = from / STRIDE;
+	Scan s = new Scan(k * STRIDE, idxTime[k], idxPos[k]);
+	while (s.row < from) s.advance();
+	for (int i = 0; i < retval.length; i++) {
+	    retval[i] = s.time;
+	    s.advance();
+	}
+	return retval;
+    }
+
+    // positioned on the first row with a time at or after from
+    Scan scan(long from) {
+	int lo = 0, hi = (rows + STRIDE - 1) / STRIDE;
+	while (lo < hi) {
+	    int mid = (lo + hi) >>> 1;
+	    if (idxTime[mid] < from) lo = mid + 1;
+	    else hi = mid;
+	}
+	int k = Math.max(lo - 1, 0);
+	Scan s = new Scan(k * STRIDE, idxTime[k], idxPos[k]);
+	while (s.row < rows && s.time < from) s.advance();
+	return s;
+    }
+
+    // A position in the time column.  row == rows() at the end.
+    class Scan {
+	int row;
+	long time;
+	private int pos;
+
+	Scan(int row, long time, int pos) {
+	    this.row = row;
+	    this.time = time;
+	    this.pos = pos;
+	}
+
+	void advance() {
+	    if (++row < rows) {
+		time += varint(pos);
+		pos = skip(pos);
+	    }
+	}
+    }
+
+    Object value(int column, int row) throws IOException {
+	int type = types[column];
+	MappedByteBuffer b = columns[column];
+	int at = row * (1 + WIDTH[type]);
+	if (b.get(at) == 0) return null;
+	at++;
+	switch (type) {
+	case SMALLINT: return b.getShort(at);
+	case INTEGER: return b.getInt(at);
+	case BIGINT: return b.getLong(at);
+	case REAL: return b.getFloat(at);
+	case DOUBLE: return b.getDouble(at);
+	case BOOLEAN: return b.get(at) != 0;
+	}
+	ByteBuffer bytes = ByteBuffer.allocate(b.getInt(at + 8));
+	heaps[column].read(bytes, b.getLong(at));
+	return new String(bytes.array(), StandardCharsets.UTF_8);
+    }
+
+    private void put(int column, int row, Object v) throws IOException {
+	int type = types[column];
+	MappedByteBuffer b = columns[column];
+	int at = row * (1 + WIDTH[type]);
+	b.put(at, (byte)(v == null ? 0 : 1));
+	if (v == null) return;
+	at++;
+	switch (type) {
+	case SMALLINT: b.putShort(at, ((Number)v).shortValue()); return;
+	case INTEGER: b.putInt(at, ((Number)v).intValue()); return;
+	case BIGINT: b.putLong(at, ((Number)v).longValue()); return;
+	case REAL: b.putFloat(at, ((Number)v).floatValue()); return;
+	case DOUBLE: b.putDouble(at, ((Number)v).doubleValue()); return;
+	case BOOLEAN: b.put(at, (byte)(((Boolean)v) ? 1 : 0)); return;
+	}
+	byte[] bytes = String.valueOf(v).getBytes(StandardCharsets.UTF_8);
+	long offset = heaps[column].size();
+	heaps[column].write(ByteBuffer.wrap(bytes), offset);
+	b.putLong(at, offset);
+	b.putInt(at + 8, bytes.length);
+    }
+
+    // count, sum, min and max of a column over rows [0, end)
+    Object[] stats(int column, int end) throws IOException {
+	if (end == ROWS && stats[column] != null) return stats[column];
+	long count = 0;
+	Object sum = null, min = null, max = null;
+	for (int r = 0; r < end; r++) {
+	    Object v = value(column, r);
+	    if (v == null) continue;
+	    count++;
+	    if (v instanceof Number) sum = StoredViewSignal.plus(sum, StoredViewSignal.widen(v));
+	    if (min == null || ((Comparable)v).compareTo(min) < 0) min = v;
+	    if (max == null || ((Comparable)v).compareTo(max) > 0) max = v;
+	}
+	Object[] retval = new Object[] { count, sum, min, max };
+	if (end == ROWS) stats[column] = retval;
+	return retval;
+    }
+
+    void close() {
+	try {
+	    time.force();
+	    timeFile.close();
+	    for (int i = 0; i < columns.length; i++) {
+		columns[i].force();
+		columnFiles[i].close();
+		if (heaps[i] != null) heaps[i].close();
+	    }
+	} catch (IOException e) {
+	    e.printStackTrace();
+	}
+    }
+
+    // zigzag-encoded variable-length integers
+    private int putVarint(int pos, long v) {
+	long z = (v << 1) ^ (v >> 63);
+	while ((z & ~0x7FL) != 0) {
+	    time.put(pos++, (byte)((z & 0x7F) | 0x80));
+	    z >>>= 7;
+	}
+	time.put(pos++, (byte)z);
+	return pos;
+    }
+
+    private long varint(int pos) {
+	long z = 0;
+	int shift = 0;
+	byte b;
+	do {
+	    b = time.get(pos++);
+	    z |= (long)(b & 0x7F) << shift;
+	    shift += 7;
+	} while ((b & 0x80) != 0);
+	return (z >>> 1) ^ -(z & 1);
+    }
+
+    private int skip(int pos) {
+	while ((time.get(pos++) & 0x80) != 0) { }
+	return pos;
+    }
+}
@@ -0,0 +1,437 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+// SeriesStore in local files, one directory per instance: the column
+// types in "schema", the rows in LocalSegments, and the checkpoint in
+// "checkpoint".  Rows arrive in time order except for those restored
+// by the recovery, which are older than the latest row; they are kept
+// apart, in memory and in the append-only file "late", and merged
+// into every read.
+class LocalSeries implements SeriesStore {
+
+    private File dir;
+    private String[] names = new String[0];
+    private int[] types = new int[0];
+    private ArrayList<LocalSegment> segments = new ArrayList<LocalSegment>();
+    private TreeMap<Long, Object[]> late = new TreeMap<Long, Object[]>();
+    private DataOutputStream lateLog = null;
+    private EventChannel appends = new EventChannel(), checkpoints = new EventChannel();
+
+    LocalSeries(File dir, String[] columns) throws IOException {
+	this.dir = dir;
+	dir.mkdirs();
+	File schema = new File(dir, "schema");
+	if (!schema.exists() && columns != null) {
+	    Files.write(schema.toPath(), String.join("\n", columns).getBytes(StandardCharsets.UTF_8));
+	}
+	if (schema.exists()) {
+	    ArrayList<String> lines = new ArrayList<String>();
+	    for (String l : Files.readAllLines(schema.toPath(), StandardCharsets.UTF_8)) {
+		if (!l.trim().isEmpty()) lines.add(l.trim());
+	    }
+	    names = new String[lines.size()];
+	    types = new int[lines.size()];
+	    for (int i = 0; i < names.length; i++) {
+		String[] nt = lines.get(i).split("\\s+", 2);
+		names[i] = nt[0].toLowerCase();
+		types[i] = LocalSegment.typeOf(nt.length > 1 ? nt[1] : "TEXT");
+	    }
+	}
+	for (int n = 0; new File(dir, n + ".time").exists(); n++) {
+	    segments.add(new LocalSegment(dir, n, names, types));
+	}
+	loadLate();
+    }
+
+    private int column(String name) {
+	if (name == null) return -1;
+	for (int i = 0; i < names.length; i++) {
+	    if (names[i].equalsIgnoreCase(name)) return i;
+	}
+	return -1;
+    }
+
+    // The column is added to the schema.  Segments map a new, zeroed
+    // file for it, which reads as null, and the late rows are written
+    // again with the wider rows.
+    public synchronized void addColumn(String column) {
+	String[] nt = column.trim().split("\\s+", 2);
+	if (column(nt[0]) >= 0) return;
+	close();
+	try {
+	    Files.write(new File(dir, "schema").toPath(), ("\n" + column.trim()).getBytes(StandardCharsets.UTF_8),
+			StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	    names = Arrays.copyOf(names, names.length + 1);
+	    types = Arrays.copyOf(types, types.length + 1);
+	    names[names.length - 1] = nt[0].toLowerCase();
+	    types[types.length - 1] = LocalSegment.typeOf(nt.length > 1 ? nt[1] : "TEXT");
+	    ArrayList<LocalSegment> reopened = new ArrayList<LocalSegment>();
+	    for (int n = 0; n < segments.size(); n++) reopened.add(new LocalSegment(dir, n, names, types));
+	    segments = reopened;
+	    TreeMap<Long, Object[]> rows = late;
+	    late = new TreeMap<Long, Object[]>();
+	    new File(dir, "late").delete();
+	    for (Map.Entry<Long, Object[]> e : rows.entrySet()) appendLate(e.getKey(), Arrays.copyOf(e.getValue(), names.length));
+	} catch (IOException e) {
+	    e.printStackTrace();
+	}
+    }
+
+    private long lastMain() {
+	return segments.isEmpty() ? Long.MIN_VALUE : segments.get(segments.size() - 1).last();
+    }
+
+    public Timestamp append(Timestamp time, String[] columns, Object[] values) {
+	Object[] row = new Object[names.length];
+	for (int i = 0; i < columns.length; i++) {
+	    int c = column(columns[i]);
+	    if (c >= 0) row[c] = values[i];
+	}
+	Timestamp retval;
+	synchronized (this) {
+	    long t;
+	    if (time == null) {
+		// now, kept increasing like the rows of one session
+		t = Math.max(HistoryCache.micros(new Timestamp(System.currentTimeMillis())), lastMain() + 1);
+	    } else {
+		t = HistoryCache.micros(time);
+	    }
+	    try {
+		if (t < lastMain()) {
+		    appendLate(t, row);
+		} else {
+		    LocalSegment seg = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+		    if (seg == null || seg.full()) {
+			seg = new LocalSegment(dir, segments.size(), names, types);
+			segments.add(seg);
+		    }
+		    seg.append(t, row);
+		}
+	    } catch (IOException e) {
+		e.printStackTrace();
+		return null;
+	    }
+	    retval = HistoryCache.timestamp(t);
+	}
+	appends.publish(retval);
+	return retval;
+    }
+
+    public synchronized Object read(String column, Timestamp cursor) {
+	int col = column(column);
+	if (col < 0) return null;
+	long c = cursor == null ? Long.MAX_VALUE : HistoryCache.micros(cursor);
+	Map.Entry<Long, Object[]> l = late.lowerEntry(c);
+	try {
+	    for (int i = segments.size() - 1; i >= 0; i--) {
+		LocalSegment seg = segments.get(i);
+		int row = seg.lastBefore(c);
+		if (row < 0) continue;
+		if (l != null && l.getKey() > seg.time(row)) break;
+		return seg.value(col, row);
+	    }
+	} catch (IOException e) {
+	    e.printStackTrace();
+	}
+	return l == null ? null : l.getValue()[col];
+    }
+
+    public TimeCursor<Object> range(String column, Timestamp from, Timestamp to) {
+	return new Range(column(column), from == null ? Long.MIN_VALUE : HistoryCache.micros(from),
+			 to == null ? Long.MAX_VALUE : HistoryCache.micros(to));
+    }
+
+    // Merges the segments and the late rows with from <= time <= to.
+    private class Range implements TimeCursor<Object> {
+	private int col, seg = 0;
+	private long from, to;
+	private LocalSegment.Scan scan = null;
+	private Iterator<Map.Entry<Long, Object[]>> lateRows;
+	private Map.Entry<Long, Object[]> nextLate;
+	private Timestamp time;
+	private Object value;
+
+	Range(int col, long from, long to) {
+	    this.col = col;
+	    this.from = from;
+	    this.to = to;
+	    synchronized (LocalSeries.this) {
+		lateRows = new ArrayList<Map.Entry<Long, Object[]>>(late.subMap(from, true, to, true).entrySet()).iterator();
+		while (seg < segments.size() && segments.get(seg).last() < from) seg++;
+	    }
+	    nextLate = lateRows.hasNext() ? lateRows.next() : null;
+	}
+
+	public boolean next() {
+	    synchronized (LocalSeries.this) {
+		try {
+		    while (seg < segments.size()) {
+			LocalSegment s = segments.get(seg);
+			if (scan == null) scan = s.scan(from);
+			if (scan.row < s.rows() && scan.time <= to) break;
+			if (scan.row < s.rows()) {
+			    seg = segments.size();
+			    break;
+			}
+			seg++;
+			scan = null;
+		    }
+		    boolean main = seg < segments.size();
+		    if (nextLate != null && (!main || nextLate.getKey() < scan.time)) {
+			time = HistoryCache.timestamp(nextLate.getKey());
+			value = col < 0 ? time : nextLate.getValue()[col];
+			nextLate = lateRows.hasNext() ? lateRows.next() : null;
+			return true;
+		    }
+		    if (!main) return false;
+		    time = HistoryCache.timestamp(scan.time);
+		    value = col < 0 ? time : segments.get(seg).value(col, scan.row);
+		    scan.advance();
+		    return true;
+		} catch (IOException e) {
+		    e.printStackTrace();
+		}
+		return false;
+	    }
+	}
+
+	public Timestamp time() { return time; }
+
+	public Object value() { return value; }
+
+	public void close() { }
+    }
+
+    // The segments are read backwards one stride of their sparse index
+    // at a time, and merged with the late rows.
+    public synchronized Timestamp startOfLast(int count, Timestamp cursor) {
+	long c = cursor == null ? Long.MAX_VALUE : HistoryCache.micros(cursor);
+	Iterator<Long> lateTimes = late.headMap(c, false).descendingKeySet().iterator();
+	Long nextLate = lateTimes.hasNext() ? lateTimes.next() : null;
+	Long retval = null;
+	for (int i = segments.size() - 1; i >= 0 && count > 0; i--) {
+	    LocalSegment seg = segments.get(i);
+	    int end = seg.lastBefore(c) + 1;
+	    while (end > 0 && count > 0) {
+		int start = (end - 1) / LocalSegment.STRIDE * LocalSegment.STRIDE;
+		long[] ts = seg.times(start, end);
+		for (int r = ts.length - 1; r >= 0 && count > 0; r--) {
+		    while (nextLate != null && nextLate > ts[r] && count > 0) {
+			retval = nextLate;
+			count--;
+			nextLate = lateTimes.hasNext() ? lateTimes.next() : null;
+		    }
+		    if (count == 0) break;
+		    retval = ts[r];
+		    count--;
+		}
+		end = start;
+	    }
+	}
+	while (nextLate != null && count > 0) {
+	    retval = nextLate;
+	    count--;
+	    nextLate = lateTimes.hasNext() ? lateTimes.next() : null;
+	}
+	return retval == null ? null : HistoryCache.timestamp(retval);
+    }
+
+    public synchronized Object aggregate(String op, String column, Timestamp cursor) {
+	int col = column(column);
+	if (col < 0) return null;
+	long c = cursor == null ? Long.MAX_VALUE : HistoryCache.micros(cursor);
+	long count = 0;
+	Object sum = null, min = null, max = null, first = null;
+	long firstTime = Long.MAX_VALUE;
+	try {
+	    for (LocalSegment seg : segments) {
+		if (seg.rows() == 0 || seg.first() >= c) break;
+		if (firstTime == Long.MAX_VALUE) {
+		    firstTime = seg.first();
+		    first = seg.value(col, 0);
+		}
+		if (op.equals("first")) break;
+		Object[] s = seg.stats(col, seg.last() < c ? seg.rows() : seg.lastBefore(c) + 1);
+		count += (Long)s[0];
+		sum = StoredViewSignal.plus(sum, s[1]);
+		if (min == null || (s[2] != null && ((Comparable)s[2]).compareTo(min) < 0)) min = s[2];
+		if (max == null || (s[3] != null && ((Comparable)s[3]).compareTo(max) > 0)) max = s[3];
+	    }
+	} catch (IOException e) {
+	    e.printStackTrace();
+	}
+	for (Map.Entry<Long, Object[]> e : late.headMap(c).entrySet()) {
+	    Object v = e.getValue()[col];
+	    if (e.getKey() < firstTime) {
+		firstTime = e.getKey();
+		first = v;
+	    }
+	    if (v == null) continue;
+	    count++;
+	    if (v instanceof Number) sum = StoredViewSignal.plus(sum, StoredViewSignal.widen(v));
+	    if (min == null || ((Comparable)v).compareTo(min) < 0) min = v;
+	    if (max == null || ((Comparable)v).compareTo(max) > 0) max = v;
+	}
+	switch (op) {
+	case "count": return count;
+	case "sum": return sum;
+	case "avg": return count == 0 || sum == null ? null : ((Number)sum).doubleValue() / count;
+	case "max": return max;
+	case "min": return min;
+	case "first": return first;
+	}
+	throw new IllegalArgumentException("unknown aggregate: " + op);
+    }
+
+    public synchronized Timestamp firstTimestamp() {
+	long t = segments.isEmpty() || segments.get(0).rows() == 0 ? Long.MAX_VALUE : segments.get(0).first();
+	if (!late.isEmpty()) t = Math.min(t, late.firstKey());
+	return t == Long.MAX_VALUE ? null : HistoryCache.timestamp(t);
+    }
+
+    public synchronized Timestamp latestTimestamp() {
+	long t = lastMain();
+	if (segments.isEmpty() || segments.get(segments.size() - 1).rows() == 0) t = Long.MIN_VALUE;
+	if (!late.isEmpty()) t = Math.max(t, late.lastKey());
+	return t == Long.MIN_VALUE ? null : HistoryCache.timestamp(t);
+    }
+
+    public Timestamp advanceCheckpoint() {
+	Timestamp previous = null, current = new Timestamp(System.currentTimeMillis());
+	synchronized (this) {
+	    try (RandomAccessFile f = new RandomAccessFile(new File(dir, "checkpoint"), "rw")) {
+		if (f.length() >= 8) previous = HistoryCache.timestamp(f.readLong());
+		f.seek(0);
+		f.writeLong(HistoryCache.micros(current));
+	    } catch (IOException e) {
+		e.printStackTrace();
+		return null;
+	    }
+	}
+	checkpoints.publish(current);
+	return previous;
+    }
+
+    public void listen(Consumer<Timestamp> onAppend) { appends.listen(onAppend); }
+
+    public void unlisten(Consumer<Timestamp> onAppend) { appends.unlisten(onAppend); }
+
+    public void listenCheckpoint(Consumer<Timestamp> onCheckpoint) { checkpoints.listen(onCheckpoint); }
+
+    public void unlistenCheckpoint(Consumer<Timestamp> onCheckpoint) { checkpoints.unlisten(onCheckpoint); }
+
+    public synchronized void clear() {
+	close();
+	for (int n = 0; n < segments.size(); n++) {
+	    for (File f : dir.listFiles()) {
+		if (f.getName().startsWith(n + ".")) f.delete();
+	    }
+	}
+	segments.clear();
+	late.clear();
+	new File(dir, "late").delete();
+    }
+
+    public synchronized void close() {
+	for (LocalSegment seg : segments) seg.close();
+	try {
+	    if (lateLog != null) lateLog.close();
+	} catch (IOException e) {
+	    e.printStackTrace();
+	}
+	lateLog = null;
+    }
+
+    private void appendLate(long t, Object[] row) throws IOException {
+	if (lateLog == null) {
+	    lateLog = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dir, "late"), true)));
+	}
+	lateLog.writeLong(t);
+	for (int i = 0; i < row.length; i++) write(lateLog, types[i], row[i]);
+	lateLog.flush();
+	late.put(t, row);
+    }
+
+    private void loadLate() throws IOException {
+	File f = new File(dir, "late");
+	if (!f.exists()) return;
+	try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+	    while (true) {
+		long t = in.readLong();
+		Object[] row = new Object[names.length];
+		for (int i = 0; i < row.length; i++) row[i] = read(in, types[i]);
+		late.put(t, row);
+	    }
+	} catch (EOFException e) {
+	    // end of the log, or a row cut short by a crash
+	}
+    }
+
+    private static void write(DataOutput out, int type, Object v) throws IOException {
+	out.writeBoolean(v != null);
+	if (v == null) return;
+	switch (type) {
+	case LocalSegment.SMALLINT: out.writeShort(((Number)v).shortValue()); return;
+	case LocalSegment.INTEGER: out.writeInt(((Number)v).intValue()); return;
+	case LocalSegment.BIGINT: out.writeLong(((Number)v).longValue()); return;
+	case LocalSegment.REAL: out.writeFloat(((Number)v).floatValue()); return;
+	case LocalSegment.DOUBLE: out.writeDouble(((Number)v).doubleValue()); return;
+	case LocalSegment.BOOLEAN: out.writeBoolean((Boolean)v); return;
+	}
+	out.writeUTF(String.valueOf(v));
+    }
+
+    private static Object read(DataInput in, int type) throws IOException {
+	if (!in.readBoolean()) return null;
+	switch (type) {
+	case LocalSegment.SMALLINT: return in.readShort();
+	case LocalSegment.INTEGER: return in.readInt();
+	case LocalSegment.BIGINT: return in.readLong();
+	case LocalSegment.REAL: return in.readFloat();
+	case LocalSegment.DOUBLE: return in.readDouble();
+	case LocalSegment.BOOLEAN: return in.readBoolean();
+	}
+	return in.readUTF();
+    }
+}
@@ -0,0 +1,201 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.Consumer;
+
+// SeriesStore kept in the heap: the times in one sorted array and each
+// column in an array beside it.  Rows older than the latest one are
+// inserted in place.  Nothing survives the process.
+class MemorySeries implements SeriesStore {
+
+    private long[] times = new long[64];
+    private Object[][] columns = new Object[0][];
+    private HashMap<String, Integer> index = new HashMap<String, Integer>();
+    private int size = 0;
+    private Timestamp checkpoint = null;
+    private EventChannel appends = new EventChannel(), checkpoints = new EventChannel();
+
+    MemorySeries(String[] columns) {
+	if (columns == null) return;
+	for (String c : columns) column(c.trim().split("\\s+")[0], true);
+    }
+
+    private int column(String name, boolean create) {
+	if (name == null) return -1;
+	String key = name.toLowerCase();
+	Integer i = index.get(key);
+	if (i != null) return i;
+	if (!create) return -1;
+	columns = Arrays.copyOf(columns, columns.length + 1);
+	columns[columns.length - 1] = new Object[times.length];
+	index.put(key, columns.length - 1);
+	return columns.length - 1;
+    }
+
+    public synchronized void addColumn(String column) {
+	column(column.trim().split("\\s+")[0], true);
+    }
+
+    // the number of rows with a time before t (after or at t with after)
+    private int bound(long t, boolean after) {
+	int lo = 0, hi = size;
+	while (lo < hi) {
+	    int mid = (lo + hi) >>> 1;
+	    if (times[mid] < t || (after && times[mid] == t)) lo = mid + 1;
+	    else hi = mid;
+	}
+	return lo;
+    }
+
+    public Timestamp append(Timestamp time, String[] names, Object[] values) {
+	Timestamp retval;
+	synchronized (this) {
+	    long t;
+	    if (time == null) {
+		t = HistoryCache.micros(new Timestamp(System.currentTimeMillis()));
+		if (size > 0 && t <= times[size - 1]) t = times[size - 1] + 1;
+	    } else {
+		t = HistoryCache.micros(time);
+	    }
+	    if (size == times.length) {
+		times = Arrays.copyOf(times, size * 2);
+		for (int c = 0; c < columns.length; c++) columns[c] = Arrays.copyOf(columns[c], size * 2);
+	    }
+	    int at = bound(t, true);
+	    if (at < size) {
+		System.arraycopy(times, at, times, at + 1, size - at);
+		for (Object[] col : columns) System.arraycopy(col, at, col, at + 1, size - at);
+	    }
+	    times[at] = t;
+	    for (Object[] col : columns) col[at] = null;
+	    for (int i = 0; i < names.length; i++) {
+		int c = column(names[i], true);
+		columns[c][at] = values[i];
+	    }
+	    size++;
+	    retval = HistoryCache.timestamp(t);
+	}
+	appends.publish(retval);
+	return retval;
+    }
+
+    public synchronized Object read(String column, Timestamp cursor) {
+	int c = column(column, false);
+	int at = cursor == null ? size : bound(HistoryCache.micros(cursor), false);
+	return c < 0 || at == 0 ? null : columns[c][at - 1];
+    }
+
+    // a copy of the rows, so that appends may continue meanwhile
+    public synchronized TimeCursor<Object> range(String column, Timestamp from, Timestamp to) {
+	int c = column(column, false);
+	int lo = from == null ? 0 : bound(HistoryCache.micros(from), false);
+	int hi = to == null ? size : bound(HistoryCache.micros(to), true);
+	long[] ts = Arrays.copyOfRange(times, lo, Math.max(lo, hi));
+	Object[] vs = c < 0 ? null : Arrays.copyOfRange(columns[c], lo, Math.max(lo, hi));
+	return new TimeCursor<Object>() {
+	    private int i = -1;
+
+	    public boolean next() { return ++i < ts.length; }
+
+	    public Timestamp time() { return HistoryCache.timestamp(ts[i]); }
+
+	    public Object value() { return vs == null ? time() : vs[i]; }
+
+	    public void close() { }
+	};
+    }
+
+    public synchronized Timestamp startOfLast(int count, Timestamp cursor) {
+	int at = cursor == null ? size : bound(HistoryCache.micros(cursor), false);
+	return at == 0 ? null : HistoryCache.timestamp(times[Math.max(at - count, 0)]);
+    }
+
+    public synchronized Object aggregate(String op, String column, Timestamp cursor) {
+	int c = column(column, false);
+	int end = cursor == null ? size : bound(HistoryCache.micros(cursor), false);
+	if (op.equals("first")) return c < 0 || end == 0 ? null : columns[c][0];
+	long count = 0;
+	Object sum = null, min = null, max = null;
+	for (int i = 0; c >= 0 && i < end; i++) {
+	    Object v = columns[c][i];
+	    if (v == null) continue;
+	    count++;
+	    if (v instanceof Number) sum = StoredViewSignal.plus(sum, StoredViewSignal.widen(v));
+	    if (min == null || ((Comparable)v).compareTo(min) < 0) min = v;
+	    if (max == null || ((Comparable)v).compareTo(max) > 0) max = v;
+	}
+	switch (op) {
+	case "count": return count;
+	case "sum": return sum;
+	case "avg": return count == 0 || sum == null ? null : ((Number)sum).doubleValue() / count;
+	case "max": return max;
+	case "min": return min;
+	}
+	throw new IllegalArgumentException("unknown aggregate: " + op);
+    }
+
+    public synchronized Timestamp firstTimestamp() {
+	return size == 0 ? null : HistoryCache.timestamp(times[0]);
+    }
+
+    public synchronized Timestamp latestTimestamp() {
+	return size == 0 ? null : HistoryCache.timestamp(times[size - 1]);
+    }
+
+    public Timestamp advanceCheckpoint() {
+	Timestamp previous, current = new Timestamp(System.currentTimeMillis());
+	synchronized (this) {
+	    previous = checkpoint;
+	    checkpoint = current;
+	}
+	checkpoints.publish(current);
+	return previous;
+    }
+
+    public void listen(Consumer<Timestamp> onAppend) { appends.listen(onAppend); }
+
+    public void unlisten(Consumer<Timestamp> onAppend) { appends.unlisten(onAppend); }
+
+    public void listenCheckpoint(Consumer<Timestamp> onCheckpoint) { checkpoints.listen(onCheckpoint); }
+
+    public void unlistenCheckpoint(Consumer<Timestamp> onCheckpoint) { checkpoints.unlisten(onCheckpoint); }
+
+    public synchronized void clear() {
+	for (Object[] col : columns) Arrays.fill(col, 0, size, null);
+	size = 0;
+    }
+
+    public void close() { }
+}
@@ -0,0 +1,80 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Named runtime statistics of the persistence layer.  Each name keeps
+// the number of recorded values, their sum, maximum and the last one,
+// so it serves both as a timer and as a gauge.
+public class Metrics {
+
+    private static ConcurrentHashMap<String, Stat> stats = new ConcurrentHashMap<String, Stat>();
+
+    public static class Stat {
+	private long count = 0, total = 0, max = Long.MIN_VALUE, last = 0;
+
+	synchronized void add(long value) {
+	    count++;
+	    total += value;
+	    last = value;
+	    if (value > max) max = value;
+	}
+
+	public synchronized long count() { return count; }
+	public synchronized long total() { return total; }
+	public synchronized long max() { return count == 0 ? 0 : max; }
+	public synchronized long last() { return last; }
+	public synchronized double mean() { return count == 0 ? 0 : (double)total / count; }
+
+	public synchronized String toString() {
+	    return "count=" + count + " total=" + total + " max=" + max() + " last=" + last;
+	}
+    }
+
+    public static void record(String name, long value) {
+	stats.computeIfAbsent(name, k -> new Stat()).add(value);
+    }
+
+    public static Stat get(String name) {
+	return stats.get(name);
+    }
+
+    public static Map<String, Stat> snapshot() {
+	return new TreeMap<String, Stat>(stats);
+    }
+
+    public static void reset() {
+	stats.clear();
+    }
+}
@@ -0,0 +1,180 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import io.r2dbc.postgresql.api.Notification;
+import io.r2dbc.postgresql.api.PostgresqlConnection;
+import reactor.core.publisher.Mono;
+
+// Receives the notifications of all channels of one database over a
+// single connection and dispatches them to the registered handlers by
+// channel name.  Notifications of one channel are handled in order;
+// different channels are handled concurrently.  After a failure the
+// hub reconnects and listens to all channels again.
+class NotificationHub {
+
+    private static final long MIN_BACKOFF = 100, MAX_BACKOFF = 30000;
+    private static HashMap<ReactiveStore, NotificationHub> hubs = new HashMap<ReactiveStore, NotificationHub>();
+    private static ExecutorService dispatcher = Executors.newCachedThreadPool(r -> {
+	    Thread t = new Thread(r, "signalj-notification");
+	    t.setDaemon(true);
+	    return t;
+	});
+
+    private ReactiveStore store;
+    private Map<String, Channel> channels = new ConcurrentHashMap<String, Channel>();
+    private PostgresqlConnection connection = null;
+    private boolean connecting = false;
+    private long backoff = MIN_BACKOFF;
+
+    static synchronized NotificationHub of(ReactiveStore store) {
+	NotificationHub hub = hubs.get(store);
+	if (hub == null) {
+	    hub = new NotificationHub(store);
+	    hubs.put(store, hub);
+	}
+	return hub;
+    }
+
+    private NotificationHub(ReactiveStore store) {
+	this.store = store;
+    }
+
+    synchronized void listen(String channelName, Consumer<Notification> handler) {
+	String name = channelName.toLowerCase();
+	Channel ch = channels.get(name);
+	if (ch == null) {
+	    ch = new Channel();
+	    channels.put(name, ch);
+	    if (connection != null) execute(connection, "LISTEN " + name);
+	}
+	ch.handlers.add(handler);
+	if (connection == null) connect();
+    }
+
+    synchronized void unlisten(String channelName, Consumer<Notification> handler) {
+	String name = channelName.toLowerCase();
+	Channel ch = channels.get(name);
+	if (ch == null) return;
+	ch.handlers.remove(handler);
+	if (ch.handlers.isEmpty()) {
+	    channels.remove(name);
+	    if (connection != null) execute(connection, "UNLISTEN " + name);
+	}
+    }
+
+    private synchronized void connect() {
+	if (connecting || connection != null) return;
+	connecting = true;
+	store.factory().create().subscribe(this::connected, e -> {
+		e.printStackTrace();
+		reconnect();
+	    });
+    }
+
+    private void connected(PostgresqlConnection c) {
+	synchronized (this) {
+	    connection = c;
+	    connecting = false;
+	    backoff = MIN_BACKOFF;
+	    for (String name : channels.keySet()) execute(c, "LISTEN " + name);
+	}
+	c.getNotifications().subscribe(this::dispatch, e -> {
+		e.printStackTrace();
+		lost(c);
+	    }, () -> lost(c));
+    }
+
+    private void lost(PostgresqlConnection c) {
+	synchronized (this) {
+	    if (connection != c) return;
+	    connection = null;
+	}
+	c.close().subscribe(v -> { }, e -> { });
+	reconnect();
+    }
+
+    private synchronized void reconnect() {
+	connecting = false;
+	long delay = backoff;
+	backoff = Math.min(backoff * 2, MAX_BACKOFF);
+	Mono.delay(Duration.ofMillis(delay)).subscribe(t -> connect());
+    }
+
+    private void execute(PostgresqlConnection c, String sql) {
+	c.createStatement(sql).execute().subscribe(r -> { }, e -> e.printStackTrace());
+    }
+
+    private void dispatch(Notification n) {
+	Channel ch = channels.get(n.getName());
+	if (ch != null) ch.offer(n);
+    }
+
+    // per-channel queue drained by at most one dispatcher thread at a time
+    private static class Channel implements Runnable {
+	CopyOnWriteArrayList<Consumer<Notification>> handlers = new CopyOnWriteArrayList<Consumer<Notification>>();
+	ConcurrentLinkedQueue<Notification> pending = new ConcurrentLinkedQueue<Notification>();
+	AtomicBoolean running = new AtomicBoolean(false);
+
+	void offer(Notification n) {
+	    pending.offer(n);
+	    if (running.compareAndSet(false, true)) dispatcher.execute(this);
+	}
+
+	public void run() {
+	    while (true) {
+		Notification n;
+		while ((n = pending.poll()) != null) {
+		    for (Consumer<Notification> h : handlers) {
+			try {
+			    h.accept(n);
+			} catch (Exception e) {
+			    e.printStackTrace();
+			}
+		    }
+		}
+		running.set(false);
+		if (pending.isEmpty() || !running.compareAndSet(false, true)) return;
+	    }
+	}
+    }
+}
@@ -0,0 +1,216 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+// Payload sent by signalj_notify_trigger: the time of the inserted
+// row in epoch microseconds and, if it fits into a notification, the
+// row itself, e.g. {"time":1700000000000000,"row":{"id":1,"x":2}}.  An
+// empty or unparsable payload yields neither.
+class NotificationPayload {
+
+    private Timestamp time = null;
+    private Map<String, String> row = null;
+
+    // installed into each database on first use
+    static final String TRIGGER_FUNCTION =
+	"CREATE OR REPLACE FUNCTION signalj_notify_trigger() RETURNS trigger AS $$ " +
+	"DECLARE payload text; " +
+	"BEGIN " +
+	"IF NEW IS NULL THEN PERFORM pg_notify(TG_ARGV[0], ''); RETURN NULL; END IF; " +
+	"payload := json_build_object('time', (extract(epoch from NEW.time) * 1000000)::bigint, 'row', row_to_json(NEW))::text; " +
+	"IF octet_length(payload) > 7900 THEN " +
+	"payload := json_build_object('time', (extract(epoch from NEW.time) * 1000000)::bigint)::text; " +
+	"END IF; " +
+	"PERFORM pg_notify(TG_ARGV[0], payload); " +
+	"RETURN NEW; " +
+	"END; $$ LANGUAGE plpgsql";
+
+    // As signalj_notify_trigger, on the table shared by the instances of a
+    // class: the channel is that of the instance of the row.
+    static final String INSTANCE_TRIGGER_FUNCTION =
+	"CREATE OR REPLACE FUNCTION signalj_notify_instance_trigger() RETURNS trigger AS $$ " +
+	"DECLARE channel text; payload text; " +
+	"BEGIN " +
+	"channel := lower(TG_ARGV[0] || '_' || NEW.instance_id) || '_channel'; " +
+	"payload := json_build_object('time', (extract(epoch from NEW.time) * 1000000)::bigint, 'row', row_to_json(NEW))::text; " +
+	"IF octet_length(payload) > 7900 THEN " +
+	"payload := json_build_object('time', (extract(epoch from NEW.time) * 1000000)::bigint)::text; " +
+	"END IF; " +
+	"PERFORM pg_notify(channel, payload); " +
+	"RETURN NEW; " +
+	"END; $$ LANGUAGE plpgsql";
+
+    // As signalj_notify_trigger, on persistent_instances for all the
+    // instances of the shared table TG_ARGV[0]: the channel is that of
+    // the instance whose checkpoint was advanced, if it is a view of the
+    // table, and not an instance of another class with a longer name.
+    static final String CHECKPOINT_TRIGGER_FUNCTION =
+	"CREATE OR REPLACE FUNCTION signalj_notify_checkpoint_trigger() RETURNS trigger AS $$ " +
+	"BEGIN " +
+	"IF EXISTS (SELECT 1 FROM information_schema.view_table_usage WHERE view_name = NEW.relname AND table_name = TG_ARGV[0]) THEN " +
+	"PERFORM pg_notify(NEW.relname || '_checkpoint', json_build_object('time', (extract(epoch from NEW.time) * 1000000)::bigint)::text); " +
+	"END IF; " +
+	"RETURN NEW; " +
+	"END; $$ LANGUAGE plpgsql";
+
+    // the payload of a row known by its time only
+    static NotificationPayload of(Timestamp time) {
+	NotificationPayload p = new NotificationPayload();
+	p.time = time;
+	return p;
+    }
+
+    static NotificationPayload parse(String payload) {
+	NotificationPayload p = new NotificationPayload();
+	if (payload == null || payload.isEmpty()) return p;
+	try {
+	    Parser parser = new Parser(payload);
+	    Object json = parser.value();
+	    if (!(json instanceof Map)) return p;
+	    Map<String, Object> obj = (Map<String, Object>)json;
+	    Object t = obj.get("time");
+	    if (t != null) p.time = HistoryCache.timestamp(Long.parseLong((String)t));
+	    Object r = obj.get("row");
+	    if (r instanceof Map) {
+		p.row = new HashMap<String, String>();
+		for (Map.Entry<String, Object> e : ((Map<String, Object>)r).entrySet()) {
+		    // nested values are left out, so that they are read
+		    // from the database
+		    if (e.getValue() == null || e.getValue() instanceof String) p.row.put(e.getKey(), (String)e.getValue());
+		}
+	    }
+	} catch (RuntimeException e) {
+	    p.time = null;
+	    p.row = null;
+	}
+	return p;
+    }
+
+    Timestamp time() { return time; }
+
+    boolean hasColumn(String name) {
+	return row != null && row.containsKey(name.toLowerCase());
+    }
+
+    // the text of a column, or null
+    String column(String name) {
+	return row == null ? null : row.get(name.toLowerCase());
+    }
+
+    // Minimal JSON reader.  Scalars are returned as their text,
+    // objects as maps; the elements of arrays are skipped.
+    private static class Parser {
+	private String s;
+	private int i = 0;
+
+	Parser(String s) { this.s = s; }
+
+	Object value() {
+	    skip();
+	    char c = s.charAt(i);
+	    if (c == '{') return object();
+	    if (c == '[') return array();
+	    if (c == '"') return string();
+	    int start = i;
+	    while (i < s.length() && ",}] \t\r\n".indexOf(s.charAt(i)) < 0) i++;
+	    String lit = s.substring(start, i);
+	    return lit.equals("null") ? null : lit;
+	}
+
+	private Map<String, Object> object() {
+	    Map<String, Object> m = new HashMap<String, Object>();
+	    i++;
+	    skip();
+	    if (s.charAt(i) == '}') { i++; return m; }
+	    while (true) {
+		skip();
+		String key = string();
+		skip();
+		expect(':');
+		m.put(key, value());
+		skip();
+		if (s.charAt(i) == ',') { i++; continue; }
+		expect('}');
+		return m;
+	    }
+	}
+
+	private Object array() {
+	    i++;
+	    skip();
+	    if (s.charAt(i) == ']') { i++; return new ArrayList<Object>(); }
+	    while (true) {
+		value();
+		skip();
+		if (s.charAt(i) == ',') { i++; continue; }
+		expect(']');
+		return new ArrayList<Object>();
+	    }
+	}
+
+	private String string() {
+	    expect('"');
+	    StringBuilder b = new StringBuilder();
+	    while (true) {
+		char c = s.charAt(i++);
+		if (c == '"') return b.toString();
+		if (c != '\\') {
+		    b.append(c);
+		    continue;
+		}
+		char e = s.charAt(i++);
+		switch (e) {
+		case 'n': b.append('\n'); break;
+		case 't': b.append('\t'); break;
+		case 'r': b.append('\r'); break;
+		case 'b': b.append('\b'); break;
+		case 'f': b.append('\f'); break;
+		case 'u': b.append((char)Integer.parseInt(s.substring(i, i+4), 16)); i += 4; break;
+		default: b.append(e);
+		}
+	    }
+	}
+
+	private void expect(char c) {
+	    if (s.charAt(i) != c) throw new IllegalArgumentException("expected " + c + " at " + i);
+	    i++;
+	}
+
+	private void skip() {
+	    while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+	}
+    }
+}
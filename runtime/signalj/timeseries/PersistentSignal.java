@@ -34,6 +34,7 @@ import java.lang.reflect.Constructor;
 import java.sql.Timestamp;
 import java.sql.ResultSet;
 import io.reactivex.functions.Consumer;
+import io.reactivex.Flowable;
 import java.util.Vector;
 
 public interface PersistentSignal<T> {
@@ -62,10 +63,57 @@ public interface PersistentSignal<T> {
 
     public PersistentSignal<Double> distance(PersistentSignal p, String name);
 
+    // One row per bucket of the interval: avg, sum, count, max, min,
+    // first or last of the rows in it.  Its value is that of the
+    // latest bucket.
+    public <R> PersistentSignal<R> bucket(String interval, String aggregate, String name);
+
+    // Approximate q-quantile of the values (0 <= q <= 1), from a
+    // t-digest; the signal is a SketchSignal.
+    public PersistentSignal<Double> quantile(double q, String name);
+
+    // approximate number of distinct values, from a HyperLogLog
+    public PersistentSignal<Long> distinctCount(String name);
+
+    // Rolling statistics, kept as columns of the instance and computed
+    // as its rows are inserted.  The window is a number of samples or
+    // an interval such as "5 minutes".
+    public PersistentSignal<Double> ewma(double alpha, String name);
+    public PersistentSignal<Double> rollingVariance(int samples, String name);
+    public PersistentSignal<Double> rollingVariance(String window, String name);
+    public PersistentSignal<Double> rollingStddev(int samples, String name);
+    public PersistentSignal<Double> rollingStddev(String window, String name);
+    public PersistentSignal<Double> rollingMax(int samples, String name);
+    public PersistentSignal<Double> rollingMax(String window, String name);
+    public PersistentSignal<Double> rollingMin(int samples, String name);
+    public PersistentSignal<Double> rollingMin(String window, String name);
+
+    // as bucket, kept by a continuous aggregate where the backend has
+    // them
+    public <R> PersistentSignal<R> bucket(String interval, String aggregate, boolean materialized, String name);
+
     public T value();
 
     public T __signalj__get();
 
+    // non-blocking read, served through R2DBC when enabled; completes
+    // without an item while the value is null
+    public Flowable<T> valueRx();
+
+    public ValueCodec<T> codec();
+
+    // The rows with from <= time < to, read in bulk; a null bound is
+    // open.  reuse, if not null, is filled and returned.
+    public RangeResult readRange(Timestamp from, Timestamp to, RangeResult reuse);
+
+    // the last count rows before to (the latest with null)
+    public RangeResult readLast(int count, Timestamp to, RangeResult reuse);
+
+    // One row per bucket of the interval in [from, to), at the start
+    // of the bucket: avg, sum, count, max, min, first or last of the
+    // rows in it.
+    public RangeResult readBuckets(Timestamp from, Timestamp to, String interval, String aggregate, RangeResult reuse);
+
     public void set(T val);
     public void setUpstream(SignalClassInstance o, SignalClassInstance n);
 
@@ -0,0 +1,146 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.function.Supplier;
+
+// Serializes the propagations of one signal and holds them back while
+// the signal is blocked, e.g. during an upstream switch.  Propagations
+// submitted while blocked are queued and run in order on unblock.
+// Several owners may hold the gate, e.g. downstreams whose buffers
+// for this signal are full; it opens when the last one releases it.
+// The time spent blocked is recorded as "<name>.blocked" (ns) and the
+// queue length at unblock as "<name>.pending".
+//
+// While blocked, at most CAPACITY propagations offered are queued.
+// Further ones are dropped, counted as "<name>.overflowed", and the
+// gate runs its catch-up once it has opened and drained, which
+// propagates again what was dropped from the rows of the signal.  The
+// rows thus buffer a held signal instead of the memory.
+class PropagationGate {
+
+    static final int CAPACITY = 4096;
+
+    private Supplier<String> name;
+    private ArrayDeque<Runnable> pending = new ArrayDeque<Runnable>();
+    private HashSet<Object> holders = new HashSet<Object>();
+    private boolean draining = false, overflowed = false;
+    private long blockedSince = 0;
+    private Runnable catchUp;
+
+    PropagationGate(Supplier<String> name) {
+	this(name, null);
+    }
+
+    PropagationGate(Supplier<String> name, Runnable catchUp) {
+	this.name = name;
+	this.catchUp = catchUp;
+    }
+
+    // As submit, but drops r while the gate is blocked and full; dropped
+    // then runs under the lock of the gate, before a catch-up can start.
+    boolean offer(Runnable r, Runnable dropped) {
+	synchronized (this) {
+	    if (catchUp != null && !holders.isEmpty() && pending.size() >= CAPACITY) {
+		overflowed = true;
+		dropped.run();
+		Metrics.record(name.get() + ".overflowed", 1);
+		return false;
+	    }
+	}
+	submit(r);
+	return true;
+    }
+
+    void submit(Runnable r) {
+	synchronized (this) {
+	    if (!holders.isEmpty() || draining) {
+		pending.add(r);
+		return;
+	    }
+	    draining = true;
+	}
+	run(r);
+	drain();
+    }
+
+    void block() { hold(this); }
+
+    void unblock() { release(this); }
+
+    synchronized void hold(Object owner) {
+	if (holders.isEmpty()) blockedSince = System.nanoTime();
+	holders.add(owner);
+    }
+
+    void release(Object owner) {
+	synchronized (this) {
+	    if (!holders.remove(owner) || !holders.isEmpty()) return;
+	    Metrics.record(name.get() + ".blocked", System.nanoTime() - blockedSince);
+	    Metrics.record(name.get() + ".pending", pending.size());
+	    if (draining) return;
+	    draining = true;
+	}
+	drain();
+    }
+
+    synchronized boolean isBlocked() { return !holders.isEmpty(); }
+
+    synchronized int pendingCount() { return pending.size(); }
+
+    private void drain() {
+	while (true) {
+	    Runnable r;
+	    synchronized (this) {
+		if (holders.isEmpty() && pending.isEmpty() && overflowed) {
+		    overflowed = false;
+		    r = catchUp;
+		} else if (!holders.isEmpty() || pending.isEmpty()) {
+		    draining = false;
+		    return;
+		} else {
+		    r = pending.poll();
+		}
+	    }
+	    run(r);
+	}
+    }
+
+    private void run(Runnable r) {
+	try {
+	    r.run();
+	} catch (Exception e) {
+	    e.printStackTrace();
+	}
+    }
+}
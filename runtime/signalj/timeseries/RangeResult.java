@@ -0,0 +1,173 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.BitSet;
+
+// Rows of one column read by PersistentSignal.readRange or
+// readBuckets: times in epoch microseconds and the values in a
+// primitive array chosen by the column type, DOUBLE or LONG, or as
+// objects otherwise.  Null values are marked in a bit set and read as
+// 0.  A result may be passed back to the next read, which then reuses
+// its arrays.
+public class RangeResult {
+
+    public static final int DOUBLE = 0, LONG = 1, OBJECT = 2;
+
+    private int kind = OBJECT;
+    private int size = 0;
+    private long[] times = new long[0];
+    private double[] doubles = null;
+    private long[] longs = null;
+    private Object[] objects = null;
+    private BitSet nulls = new BitSet();
+
+    public int size() { return size; }
+
+    public int kind() { return kind; }
+
+    // arrays with at least size() elements
+    public long[] times() { return times; }
+
+    public double[] doubles() { return doubles; }
+
+    public long[] longs() { return longs; }
+
+    public Object[] objects() { return objects; }
+
+    public long time(int i) { return times[i]; }
+
+    public Timestamp timestamp(int i) { return HistoryCache.timestamp(times[i]); }
+
+    public boolean isNull(int i) { return nulls.get(i); }
+
+    public double doubleAt(int i) {
+	switch (kind) {
+	case DOUBLE: return doubles[i];
+	case LONG: return longs[i];
+	}
+	return objects[i] == null ? 0 : ((Number)objects[i]).doubleValue();
+    }
+
+    public long longAt(int i) {
+	switch (kind) {
+	case DOUBLE: return (long)doubles[i];
+	case LONG: return longs[i];
+	}
+	return objects[i] == null ? 0 : ((Number)objects[i]).longValue();
+    }
+
+    public Object value(int i) {
+	if (nulls.get(i)) return null;
+	switch (kind) {
+	case DOUBLE: return doubles[i];
+	case LONG: return longs[i];
+	}
+	return objects[i];
+    }
+
+    static RangeResult reuse(RangeResult r, int kind) {
+	if (r == null) r = new RangeResult();
+	r.begin(kind);
+	return r;
+    }
+
+    // the kind of a java.sql.Types column
+    static int kindOf(int sqlType) {
+	switch (sqlType) {
+	case Types.REAL: case Types.FLOAT: case Types.DOUBLE: case Types.NUMERIC: case Types.DECIMAL:
+	    return DOUBLE;
+	case Types.TINYINT: case Types.SMALLINT: case Types.INTEGER: case Types.BIGINT:
+	    return LONG;
+	}
+	return OBJECT;
+    }
+
+    // the kind of a value read in memory
+    static int kindOf(Object v) {
+	if (v instanceof Double || v instanceof Float) return DOUBLE;
+	if (v instanceof Long || v instanceof Integer || v instanceof Short || v instanceof Byte) return LONG;
+	return OBJECT;
+    }
+
+    private void begin(int kind) {
+	this.kind = kind;
+	size = 0;
+	nulls.clear();
+	if (kind == DOUBLE && doubles == null) doubles = new double[times.length];
+	if (kind == LONG && longs == null) longs = new long[times.length];
+	if (kind == OBJECT && objects == null) objects = new Object[times.length];
+	if (kind == OBJECT) Arrays.fill(objects, null);
+    }
+
+    private void grow() {
+	int n = Math.max(16, size * 2);
+	times = Arrays.copyOf(times, n);
+	if (doubles != null) doubles = Arrays.copyOf(doubles, n);
+	if (longs != null) longs = Arrays.copyOf(longs, n);
+	if (objects != null) objects = Arrays.copyOf(objects, n);
+    }
+
+    void addDouble(long time, double v, boolean isNull) {
+	if (size == times.length) grow();
+	times[size] = time;
+	doubles[size] = isNull ? 0 : v;
+	if (isNull) nulls.set(size);
+	size++;
+    }
+
+    void addLong(long time, long v, boolean isNull) {
+	if (size == times.length) grow();
+	times[size] = time;
+	longs[size] = isNull ? 0 : v;
+	if (isNull) nulls.set(size);
+	size++;
+    }
+
+    void add(long time, Object v) {
+	switch (kind) {
+	case DOUBLE:
+	    addDouble(time, v == null ? 0 : ((Number)v).doubleValue(), v == null);
+	    return;
+	case LONG:
+	    addLong(time, v == null ? 0 : ((Number)v).longValue(), v == null);
+	    return;
+	}
+	if (size == times.length) grow();
+	times[size] = time;
+	objects[size] = v;
+	if (v == null) nulls.set(size);
+	size++;
+    }
+}
@@ -0,0 +1,128 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Optional;
+import java.util.function.Function;
+
+import io.r2dbc.postgresql.PostgresqlConnectionFactory;
+import io.r2dbc.postgresql.PostgresqlConnectionConfiguration;
+import io.r2dbc.postgresql.api.PostgresqlConnection;
+import io.r2dbc.postgresql.api.PostgresqlStatement;
+import io.r2dbc.spi.Row;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Non-blocking access to one database through R2DBC.  A store keeps
+// a single connection per database which all instances share.
+class ReactiveStore {
+
+    private static HashMap<String, ReactiveStore> stores = new HashMap<String, ReactiveStore>();
+
+    private PostgresqlConnectionFactory factory;
+    private Mono<PostgresqlConnection> connection = null;
+
+    static boolean enabled() {
+	return DBConfig.reactive != null && DBConfig.reactive.equals("true");
+    }
+
+    static synchronized ReactiveStore of(String url, String user, String password) {
+	String key = url + "|" + user;
+	ReactiveStore store = stores.get(key);
+	if (store == null) {
+	    store = new ReactiveStore(url, user, password);
+	    stores.put(key, store);
+	}
+	return store;
+    }
+
+    private ReactiveStore(String url, String user, String password) {
+	String address = url.split("://")[1];
+	String host = address.split(":")[0];
+	String port = address.split(":")[1].split("/")[0];
+	String database = address.split(":")[1].split("/")[1].split("\\?")[0];
+	factory = new PostgresqlConnectionFactory(PostgresqlConnectionConfiguration.builder()
+						  .host(host)
+						  .port(Integer.parseInt(port))
+						  .username(user)
+						  .password(password)
+						  .database(database)
+						  .enableSsl()
+						  .build());
+    }
+
+    // the connection is kept once established; a failed attempt is
+    // dropped, so that the next query connects again
+    private synchronized Mono<PostgresqlConnection> connection() {
+	if (connection == null) connection = factory.create().doOnError(e -> reset()).cache();
+	return connection;
+    }
+
+    private synchronized void reset() {
+	connection = null;
+    }
+
+    PostgresqlConnectionFactory factory() { return factory; }
+
+    // Parameters are written as $1, $2, ... in the query.  The counts
+    // are Integer before R2DBC SPI 1.0 and Long since.
+    Mono<Long> update(String sql, Object... binds) {
+	return connection().flatMapMany(c -> bind(c.createStatement(sql), binds).execute())
+	    .flatMap(r -> r.getRowsUpdated())
+	    .collectList()
+	    .map(l -> l.stream().mapToLong(Number::longValue).sum());
+    }
+
+    // Rows mapped to null, e.g. a SQL NULL, are skipped, since Reactor
+    // does not carry nulls.
+    <R> Flux<R> query(String sql, Function<Row,R> mapper, Object... binds) {
+	return connection().flatMapMany(c -> bind(c.createStatement(sql), binds).execute())
+	    .flatMap(r -> r.map((row, meta) -> Optional.ofNullable(mapper.apply(row))))
+	    .filter(Optional::isPresent)
+	    .map(Optional::get);
+    }
+
+    private PostgresqlStatement bind(PostgresqlStatement stmt, Object[] binds) {
+	for (int i=0; i<binds.length; i++) {
+	    Object b = binds[i];
+	    stmt.bind(i, b instanceof Timestamp ? ((Timestamp)b).toInstant() : b);
+	}
+	return stmt;
+    }
+
+    static Timestamp timestamp(Row row, String column) {
+	Instant i = row.get(column, Instant.class);
+	return i == null ? null : Timestamp.from(i);
+    }
+}
@@ -0,0 +1,101 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs the consistency checks of a checkpoint on a worker pool.  An
+// instance is submitted once all of its upstreams have finished (see
+// Synchronizer.pushCheckPoint), so that independent branches of the
+// dependency graph are checked concurrently.  The pool also runs
+// work handed off by timer threads.
+class RecoveryScheduler {
+
+    private static ExecutorService workers =
+	Executors.newFixedThreadPool(Math.max(Runtime.getRuntime().availableProcessors(), 2), r -> {
+		Thread t = new Thread(r, "signalj-recovery");
+		t.setDaemon(true);
+		return t;
+	    });
+
+    // other work that must not run on a timer thread, e.g. the
+    // coalesced re-evaluations of Synchronizer.notifyUpdate
+    static void execute(Runnable task) {
+	workers.execute(() -> {
+		try {
+		    task.run();
+		} catch (Exception e) {
+		    e.printStackTrace();
+		}
+	    });
+    }
+
+    static void submit(Run run, Runnable task) {
+	run.enter();
+	workers.execute(() -> {
+		try {
+		    task.run();
+		} catch (Exception e) {
+		    e.printStackTrace();
+		} finally {
+		    run.exit();
+		}
+	    });
+    }
+
+    // The recovery started by one checkpoint of a source.  It ends
+    // when no instance of it is running or about to be submitted; its
+    // total time is then recorded as "<source>.recovery.total" (ns).
+    static class Run {
+	private String source;
+	private long start = System.nanoTime();
+	private AtomicInteger active = new AtomicInteger(1); // held by the source until it has pushed
+	private AtomicInteger instances = new AtomicInteger(0);
+
+	Run(String source) {
+	    this.source = source;
+	}
+
+	void enter() {
+	    active.incrementAndGet();
+	    instances.incrementAndGet();
+	}
+
+	void exit() {
+	    if (active.decrementAndGet() > 0) return;
+	    long total = System.nanoTime() - start;
+	    Metrics.record(source + ".recovery.total", total);
+	    Metrics.record(source + ".recovery.instances", instances.get());
+	}
+    }
+}
@@ -0,0 +1,106 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Vector;
+
+// Re-evaluates an instance at a batch of missing timestamps.  The
+// rows of each upstream table over the whole range are loaded with
+// one ordered scan, the generated reval() then reads them from memory
+// at each timestamp, and the results are written with one batched
+// insert.  The time cursors are put back afterwards.  Replays of
+// downstreams of the same upstream move its cursor and preloaded rows,
+// so they take the upstream's replay lock and run one after another.
+class ReplayEngine {
+
+    private Synchronizer sync;
+
+    ReplayEngine(Synchronizer sync) {
+	this.sync = sync;
+    }
+
+    // The upstreams are read just after each timestamp, as in
+    // propagation, and the result is inserted at the timestamp.
+    void replay(List<Timestamp> missing) {
+	if (missing.isEmpty()) return;
+	long start = System.nanoTime();
+	Vector<Timestamp> times = new Vector<Timestamp>(missing);
+	Collections.sort(times);
+	SignalClassInstance inst = sync.getSignalClassInst();
+	Synchronizer[] upstreams = sync.getSourceSyncs();
+	// locked in the order of their names, so that replays sharing
+	// several upstreams cannot deadlock
+	Arrays.sort(upstreams, Comparator.comparing(Synchronizer::dbName));
+	int locked = 0;
+	try {
+	    for (; locked < upstreams.length; locked++) upstreams[locked].replayLock().lock();
+	    replay(inst, upstreams, times, start);
+	} finally {
+	    while (locked > 0) upstreams[--locked].replayLock().unlock();
+	}
+    }
+
+    private void replay(SignalClassInstance inst, Synchronizer[] upstreams, Vector<Timestamp> times, long start) {
+	Timestamp[] cursors = new Timestamp[upstreams.length];
+	Timestamp latest = inst.latestTimestamp();
+	Timestamp to = after(times.lastElement());
+	for (int i = 0; i < upstreams.length; i++) {
+	    cursors[i] = upstreams[i].getTimeCursor();
+	    upstreams[i].preloadRange(times.firstElement(), to);
+	}
+	sync.beginBatch();
+	try {
+	    for (Timestamp ts : times) {
+		for (Synchronizer up : upstreams) up.getSignalClassInst().snapshot(after(ts));
+		inst.snapshot(ts);
+		inst.reval();
+	    }
+	} finally {
+	    int rows = sync.endBatch();
+	    for (int i = 0; i < upstreams.length; i++) {
+		upstreams[i].clearPreload();
+		upstreams[i].getSignalClassInst().snapshot(cursors[i]);
+	    }
+	    inst.snapshot(latest);
+	    Metrics.record(sync.dbName() + ".replay.rows", rows);
+	    Metrics.record(sync.dbName() + ".replay", System.nanoTime() - start);
+	}
+    }
+
+    private static Timestamp after(Timestamp ts) {
+	return HistoryCache.timestamp(HistoryCache.micros(ts) + 1);
+    }
+}
@@ -0,0 +1,95 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+// TimeCursor over a result set whose first column is the time
+// and whose second column is the value.
+class ResultSetCursor<T> implements TimeCursor<T> {
+
+    private PreparedStatement stmt;
+    private ResultSet rs;
+    private Timestamp time;
+    private T value;
+    private StreamingConnection streaming = null;
+
+    ResultSetCursor(PreparedStatement stmt) throws SQLException {
+	this.stmt = stmt;
+	this.rs = stmt.executeQuery();
+    }
+
+    // over a statement of streaming, released when the cursor closes
+    ResultSetCursor(PreparedStatement stmt, StreamingConnection streaming) throws SQLException {
+	this.stmt = stmt;
+	try {
+	    this.rs = stmt.executeQuery();
+	} catch (SQLException e) {
+	    close();
+	    throw e;
+	}
+	this.streaming = streaming;
+    }
+
+    public boolean next() {
+	try {
+	    if (rs.next()) {
+		time = rs.getTimestamp(1);
+		value = (T)rs.getObject(2);
+		return true;
+	    }
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	}
+	close();
+	return false;
+    }
+
+    public Timestamp time() { return time; }
+
+    public T value() { return value; }
+
+    public void close() {
+	try {
+	    if (rs != null) rs.close();
+	    if (stmt != null) stmt.close();
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	}
+	rs = null;
+	stmt = null;
+	if (streaming != null) streaming.release();
+	streaming = null;
+    }
+}
@@ -0,0 +1,171 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+
+// A rolling statistic of a persistent signal, kept as a column of its
+// instance (see Synchronizer.addRolling): the exponentially weighted
+// moving average, or the sample variance, standard deviation, maximum
+// or minimum of the last samples values or of the values in the last
+// window.  Each value updates it in constant (amortized) time.
+//
+// Before the first value, and whenever the time of a row goes back, as
+// when the rows after a time cursor are restored, the state is rebuilt
+// from the rows before that time: the last average, or the rows of the
+// window.
+class Rolling {
+
+    static final String EWMA = "ewma", VARIANCE = "variance", STDDEV = "stddev", MAX = "max", MIN = "min";
+
+    private String op;
+    private double alpha;
+    private int samples;
+    private long window;
+    private PersistentSignal source;
+    private PersistentSignal<Double> signal;
+
+    private boolean seeded = false;
+    private long last = Long.MIN_VALUE, seq = 0;
+    private Double ewma = null;
+    // the values of the window, oldest first; for max and min only
+    // those that may still become the extreme
+    private ArrayDeque<Sample> values = new ArrayDeque<Sample>();
+    private long n = 0;
+    private double mean = 0, m2 = 0;
+
+    private static class Sample {
+	long seq, time;
+	double value;
+
+	Sample(long seq, long time, double value) {
+	    this.seq = seq;
+	    this.time = time;
+	    this.value = value;
+	}
+    }
+
+    // alpha for EWMA; otherwise a number of samples, or with 0 a
+    // window such as "5 minutes"
+    Rolling(String op, double alpha, int samples, String window) {
+	this.op = op;
+	this.alpha = alpha;
+	this.samples = samples;
+	this.window = window == null ? 0 : Intervals.micros(window);
+	if (op.equals(EWMA) ? alpha <= 0 || alpha > 1 : samples <= 0 && this.window <= 0) {
+	    throw new IllegalArgumentException("rolling " + op + " needs " + (op.equals(EWMA) ? "0 < alpha <= 1" : "a positive window"));
+	}
+    }
+
+    void attach(PersistentSignal source, PersistentSignal<Double> signal) {
+	this.source = source;
+	this.signal = signal;
+    }
+
+    PersistentSignal source() { return source; }
+
+    PersistentSignal<Double> signal() { return signal; }
+
+    // the statistic after the value of the row at time; nulls leave it
+    // as it is
+    Double next(Timestamp time, Object v) {
+	long t = HistoryCache.micros(time);
+	if (!seeded || t < last) seed(t);
+	last = t;
+	if (v instanceof Number) add(t, ((Number)v).doubleValue());
+	return result();
+    }
+
+    private void seed(long t) {
+	ewma = null;
+	values.clear();
+	n = 0;
+	mean = m2 = 0;
+	Timestamp to = HistoryCache.timestamp(t);
+	if (op.equals(EWMA)) {
+	    RangeResult r = signal.readLast(1, to, null);
+	    if (r.size() > 0 && !r.isNull(0)) ewma = ((Number)r.value(0)).doubleValue();
+	} else {
+	    RangeResult r = samples > 0 ? source.readLast(samples, to, null) : source.readRange(HistoryCache.timestamp(t - window + 1), to, null);
+	    for (int i = 0; i < r.size(); i++) {
+		if (!r.isNull(i)) add(r.time(i), ((Number)r.value(i)).doubleValue());
+	    }
+	}
+	seeded = true;
+    }
+
+    private void add(long t, double x) {
+	seq++;
+	if (op.equals(EWMA)) {
+	    ewma = ewma == null ? x : alpha * x + (1 - alpha) * ewma;
+	    return;
+	}
+	if (op.equals(MAX) || op.equals(MIN)) {
+	    // a value is dropped once a later one is at least as extreme
+	    while (!values.isEmpty() && (op.equals(MAX) ? values.peekLast().value <= x : values.peekLast().value >= x)) values.pollLast();
+	    values.addLast(new Sample(seq, t, x));
+	    while (expired(values.peekFirst(), t)) values.pollFirst();
+	    return;
+	}
+	// Welford's update, and its inverse for the values leaving
+	values.addLast(new Sample(seq, t, x));
+	n++;
+	double d = x - mean;
+	mean += d / n;
+	m2 += d * (x - mean);
+	while (expired(values.peekFirst(), t)) {
+	    double y = values.pollFirst().value;
+	    if (--n == 0) {
+		mean = m2 = 0;
+	    } else {
+		d = y - mean;
+		mean -= d / n;
+		m2 -= d * (y - mean);
+	    }
+	}
+    }
+
+    private boolean expired(Sample s, long t) {
+	if (s == null) return false;
+	return samples > 0 ? s.seq <= seq - samples : s.time <= t - window;
+    }
+
+    private Double result() {
+	switch (op) {
+	case EWMA: return ewma;
+	case MAX: case MIN: return values.isEmpty() ? null : values.peekFirst().value;
+	}
+	if (n < 2) return null;
+	double variance = Math.max(m2, 0) / (n - 1);
+	return op.equals(STDDEV) ? Math.sqrt(variance) : variance;
+    }
+}
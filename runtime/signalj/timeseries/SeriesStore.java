@@ -0,0 +1,84 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.Timestamp;
+import java.util.function.Consumer;
+
+// The rows of one persistent signal instance in a storage backend.
+// Rows are ordered by time; a read at a time cursor sees the last row
+// strictly before the cursor, or the latest row when the cursor is null.
+public interface SeriesStore {
+
+    // appends a row at time (now when null) and returns its time
+    public Timestamp append(Timestamp time, String[] columns, Object[] values);
+
+    public Object read(String column, Timestamp cursor);
+
+    // adds a column, given as "name TYPE", unless it exists; earlier
+    // rows have null in it
+    public void addColumn(String column);
+
+    // rows with from <= time <= to in time order, where a null bound
+    // is open; with a null column the values are the times themselves
+    public TimeCursor<Object> range(String column, Timestamp from, Timestamp to);
+
+    // the time of the count-th row before the cursor counting back from
+    // the last one, or of the first row if there are fewer; null
+    // without rows before the cursor
+    public Timestamp startOfLast(int count, Timestamp cursor);
+
+    // count, sum, avg, max, min or first of a column over the rows
+    // before the cursor
+    public Object aggregate(String op, String column, Timestamp cursor);
+
+    public Timestamp firstTimestamp();
+
+    public Timestamp latestTimestamp();
+
+    // moves the checkpoint of the instance to now and returns the
+    // previous one; the listeners of checkpoints get the new one
+    public Timestamp advanceCheckpoint();
+
+    // called with the time of each appended row
+    public void listen(Consumer<Timestamp> onAppend);
+
+    public void unlisten(Consumer<Timestamp> onAppend);
+
+    public void listenCheckpoint(Consumer<Timestamp> onCheckpoint);
+
+    public void unlistenCheckpoint(Consumer<Timestamp> onCheckpoint);
+
+    // deletes all rows
+    public void clear();
+
+    public void close();
+}
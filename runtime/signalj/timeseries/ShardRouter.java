@@ -0,0 +1,173 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Places signal class instances on database nodes by consistent
+// hashing of their table names.  The nodes are configured as
+//
+//   shards=2
+//   shard.0.url=jdbc:postgresql://db0/signalj
+//   shard.0.user=...
+//   shard.0.password=...
+//   shard.0.weight=2
+//   shard.1.url=...
+//
+// Each node gets VNODES * weight points on the ring, derived from its
+// url and user, so that adding a node only moves the instances that
+// now hash to it.  Those instances are not moved by the router: the
+// first time a name is routed, the node it hashes to is checked for
+// its row in persistent_instances, and if another node has the row
+// instead, the instance stays unresolved with an IllegalStateException
+// rather than starting over empty on its new node.
+class ShardRouter {
+
+    static final int VNODES = 128;
+
+    private static ShardRouter router = null;
+    private static boolean loaded = false;
+
+    private TreeMap<Long, DBEndpoint> ring = new TreeMap<Long, DBEndpoint>();
+    private List<DBEndpoint> nodes = new ArrayList<DBEndpoint>();
+    private ConcurrentHashMap<String, DBEndpoint> checked = new ConcurrentHashMap<String, DBEndpoint>();
+    private HashMap<DBEndpoint, Connection> probes = new HashMap<DBEndpoint, Connection>();
+
+    ShardRouter(List<DBEndpoint> nodes, List<Integer> weights) {
+	for (int i = 0; i < nodes.size(); i++) {
+	    DBEndpoint node = nodes.get(i);
+	    this.nodes.add(node);
+	    for (int v = 0; v < VNODES * Math.max(weights.get(i), 1); v++) {
+		ring.put(hash(node + "#" + v), node);
+	    }
+	}
+    }
+
+    // the router of the configuration file, or null without shards
+    static synchronized ShardRouter configured() {
+	if (loaded) return router;
+	loaded = true;
+	String count = DBConfig.properties.getProperty("shards");
+	if (count == null) return null;
+	List<DBEndpoint> nodes = new ArrayList<DBEndpoint>();
+	List<Integer> weights = new ArrayList<Integer>();
+	for (int i = 0; i < Integer.parseInt(count.trim()); i++) {
+	    String prefix = "shard." + i + ".";
+	    String url = DBConfig.properties.getProperty(prefix + "url");
+	    if (url == null) {
+		System.err.println("no url for " + prefix + "url");
+		continue;
+	    }
+	    nodes.add(new DBEndpoint(url,
+				     DBConfig.properties.getProperty(prefix + "user", DBConfig.user),
+				     DBConfig.properties.getProperty(prefix + "password", DBConfig.password)));
+	    weights.add(Integer.parseInt(DBConfig.properties.getProperty(prefix + "weight", "1").trim()));
+	}
+	if (!nodes.isEmpty()) router = new ShardRouter(nodes, weights);
+	return router;
+    }
+
+    DBEndpoint route(String name) {
+	String key = name.toLowerCase();
+	DBEndpoint owner = checked.get(key);
+	if (owner != null) return owner;
+	owner = owner(key);
+	DBEndpoint previous = previousOwner(key, owner);
+	if (previous != null) {
+	    throw new IllegalStateException(key + " is registered on " + previous + " but now hashes to " + owner +
+					    "; move its table and its persistent_instances row there first");
+	}
+	checked.put(key, owner);
+	return owner;
+    }
+
+    private DBEndpoint owner(String key) {
+	Map.Entry<Long, DBEndpoint> e = ring.ceilingEntry(hash(key));
+	return e == null ? ring.firstEntry().getValue() : e.getValue();
+    }
+
+    // the node other than owner registering the instance, if owner
+    // does not
+    private synchronized DBEndpoint previousOwner(String key, DBEndpoint owner) {
+	if (nodes.size() < 2 || registers(owner, key)) return null;
+	for (DBEndpoint node : nodes) {
+	    if (!node.equals(owner) && registers(node, key)) return node;
+	}
+	return null;
+    }
+
+    private boolean registers(DBEndpoint node, String key) {
+	try {
+	    Connection conn = probes.get(node);
+	    if (conn == null || conn.isClosed()) {
+		conn = node.connect();
+		probes.put(node, conn);
+	    }
+	    PreparedStatement stmt = conn.prepareStatement("SELECT 1 FROM persistent_instances WHERE relname = ?");
+	    stmt.setString(1, key);
+	    ResultSet rs = stmt.executeQuery();
+	    boolean retval = rs.next();
+	    rs.close();
+	    stmt.close();
+	    return retval;
+	} catch (SQLException e) {
+	    // persistent_instances may not exist yet on a new node
+	    if ("42P01".equals(e.getSQLState())) return false;
+	    System.err.println("cannot check " + key + " on " + node + ": " + e.getMessage());
+	}
+	return false;
+    }
+
+    List<DBEndpoint> nodes() { return nodes; }
+
+    private static long hash(String key) {
+	try {
+	    byte[] d = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+	    long h = 0;
+	    for (int i = 0; i < 8; i++) h = (h << 8) | (d[i] & 0xff);
+	    return h;
+	} catch (NoSuchAlgorithmException e) {
+	    return key.hashCode();
+	}
+    }
+}
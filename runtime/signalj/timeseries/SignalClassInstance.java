@@ -30,6 +30,7 @@
 
 package signalj.timeseries;
 
+import java.lang.reflect.Field;
 import java.sql.Timestamp;
 import java.util.Vector;
 
@@ -59,6 +60,24 @@ public interface SignalClassInstance {
 
     public void setUpstream(SignalClassInstance o, SignalClassInstance n);
 
+    // Replaces the upstream o held in a field by n.  The compiler
+    // generates this accessor; classes compiled without it fall back
+    // to reflection.
+    public default boolean replaceUpstream(SignalClassInstance o, SignalClassInstance n) {
+	for (Field f : getClass().getDeclaredFields()) {
+	    try {
+		f.setAccessible(true);
+		if (f.get(this) == o) {
+		    f.set(this, n);
+		    return true;
+		}
+	    } catch (Exception e) {
+		e.printStackTrace();
+	    }
+	}
+	return false;
+    }
+
     public void updateSwitchHistory();
 
     public void block();
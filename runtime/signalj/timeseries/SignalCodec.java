@@ -0,0 +1,108 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+// Per-signal cache of the shape of the relation backing a signal:
+// the JDBC type of its value column, the value codec for that type
+// and whether it has a time column.  Resolved once and dropped only
+// on DDL.
+class SignalCodec {
+
+    private String relation, column;
+    private int type = Types.NULL;
+    private ValueCodec<?> valueCodec = null;
+    private boolean timeseries = false;
+    private boolean resolved = false;
+
+    SignalCodec(String relation, String column) {
+	this.relation = relation;
+	this.column = column;
+    }
+
+    synchronized void resolve(Connection conn) {
+	if (resolved || conn == null) return;
+	try {
+	    PreparedStatement stmt = conn.prepareStatement("SELECT * FROM " + relation + " LIMIT 0");
+	    ResultSet rs = stmt.executeQuery();
+	    ResultSetMetaData meta = rs.getMetaData();
+	    int valueColumn = -1;
+	    timeseries = false;
+	    for (int i=1; i<=meta.getColumnCount(); i++) {
+		String c = meta.getColumnName(i);
+		if (c.equalsIgnoreCase("time")) timeseries = true;
+		else if (c.equalsIgnoreCase(column)) valueColumn = i;
+	    }
+	    // a column not added yet: left unresolved rather than decoded
+	    // with the type of another column
+	    if (valueColumn > 0) {
+		type = meta.getColumnType(valueColumn);
+		valueCodec = ValueCodecs.forType(type);
+		resolved = true;
+	    }
+	    rs.close();
+	    stmt.close();
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	}
+    }
+
+    // called after DDL changed or dropped the relation
+    synchronized void invalidate() {
+	resolved = false;
+	type = Types.NULL;
+	valueCodec = null;
+    }
+
+    boolean isResolved() { return resolved; }
+
+    int columnType(Connection conn) {
+	resolve(conn);
+	return type;
+    }
+
+    // null while the relation cannot be resolved
+    ValueCodec<?> valueCodec(Connection conn) {
+	resolve(conn);
+	return valueCodec;
+    }
+
+    boolean isTimeseries(Connection conn) {
+	resolve(conn);
+	return timeseries;
+    }
+}
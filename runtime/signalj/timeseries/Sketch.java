@@ -0,0 +1,70 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+// A summary of the values of a signal that is updated one value at a
+// time and merged with the summaries of other rows, such as those of
+// another time span or another instance.  Sketches are persisted as
+// their bytes.
+public interface Sketch {
+
+    // the kinds of the sketch signals
+    public static final String QUANTILE = "quantile", DISTINCT = "distinct";
+
+    // nulls, and for quantiles non-numeric values, are skipped
+    public void add(Object value);
+
+    // adds the values summarized by other, a sketch of the same kind
+    public void merge(Sketch other);
+
+    public Sketch copy();
+
+    public byte[] toBytes();
+
+    // the value of a sketch signal: the q-quantile of a digest or the
+    // number of distinct values
+    static Object value(Sketch s, double q) {
+	if (s instanceof TDigest) return ((TDigest)s).quantile(q);
+	return ((HyperLogLog)s).estimate();
+    }
+
+    static Sketch create(String kind) {
+	if (kind.equals(QUANTILE)) return new TDigest();
+	if (kind.equals(DISTINCT)) return new HyperLogLog();
+	throw new IllegalArgumentException("unknown sketch: " + kind);
+    }
+
+    static Sketch decode(String kind, byte[] bytes) {
+	if (kind.equals(QUANTILE)) return TDigest.fromBytes(bytes);
+	if (kind.equals(DISTINCT)) return HyperLogLog.fromBytes(bytes);
+	throw new IllegalArgumentException("unknown sketch: " + kind);
+    }
+}
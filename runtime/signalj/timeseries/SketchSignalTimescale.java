@@ -0,0 +1,317 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.function.Consumer;
+import io.r2dbc.postgresql.api.Notification;
+import io.reactivex.Flowable;
+import io.reactivex.Maybe;
+
+// quantile and distinctCount: a t-digest or a HyperLogLog of a column
+// of the instance, or of a view.
+//
+// The process that inserts the rows adds their values to a pending
+// sketch (see Synchronizer), which is appended to persistent_sketches
+// by the statement advancing each checkpoint; each of these rows
+// covers the values inserted since the previous one, and is stamped
+// with the time of the last row it covers.  Readers merge them and
+// fold only the rows after the last, and then keep the sketch of all
+// rows in memory, updated from the insert notifications of the
+// instance, so that a read costs the size of the sketch.  Over a view
+// the rows are folded again after each insert.
+//
+// The relation of the signal is the exact SQL counterpart, for views
+// of it.
+public class SketchSignalTimescale<T> extends TimescaleViewSignal<T> implements SketchSignal {
+
+    private String kind;
+    private double q;
+    private String column;
+    private SignalCodec source = null;
+
+    private boolean stale = true;
+    private long newest;
+    private Sketch current = null;
+    private NotificationHub hub = null;
+    private Consumer<Notification> onInsert = this::inserted;
+
+    // values inserted by this process since the last checkpoint
+    private Sketch pending = null;
+    private int pendingCount = 0;
+    private Timestamp pendingUpto = null;
+    private boolean seeded = false;
+    // the pending sketch taken for a checkpoint, until it is persisted
+    private Sketch taken = null;
+    private Timestamp takenUpto = null;
+
+    SketchSignalTimescale(String kind, double q, String baseName, String name, String fromName, String columnName) {
+	super(baseName, name, fromName, columnName);
+	this.kind = kind;
+	this.q = q;
+	this.column = columnName==null ? "value" : columnName;
+	if (kind.equals(Sketch.QUANTILE)) {
+	    preparedQuery = "SELECT percentile_cont(" + q + ") WITHIN GROUP (ORDER BY " + column + ") AS value FROM " + fromDB;
+	} else {
+	    preparedQuery = "SELECT count(DISTINCT " + column + ") AS value FROM " + fromDB;
+	}
+	if (columnName != null) source = new SignalCodec(baseName, columnName);
+	hub = notifications();
+	hub.listen(baseName + "_channel", onInsert);
+    }
+
+    String column() { return columnName; }
+
+    public void dbgen() {
+	try {
+	    Statement stmt = conn.createStatement();
+	    stmt.execute("CREATE TABLE IF NOT EXISTS persistent_sketches (relname TEXT NOT NULL, time TIMESTAMPTZ NOT NULL, state BYTEA NOT NULL)");
+	    stmt.execute("CREATE INDEX IF NOT EXISTS persistent_sketches_relname ON persistent_sketches (relname, time)");
+	    stmt.close();
+	    if (!conn.getAutoCommit()) conn.commit();
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	}
+	super.dbgen();
+    }
+
+    public T __signalj__get() {
+	if (timeCursor != null) return (T)Sketch.value(sketch(null, timeCursor), q);
+	synchronized (this) {
+	    if (stale) load();
+	    return current == null ? null : (T)Sketch.value(current, q);
+	}
+    }
+
+    public Flowable<T> valueRx() {
+	return Maybe.fromCallable(this::__signalj__get).toFlowable();
+    }
+
+    public synchronized Sketch sketch() {
+	if (stale) load();
+	return current == null ? null : current.copy();
+    }
+
+    public Sketch sketch(Timestamp from, Timestamp to) {
+	Sketch s = Sketch.create(kind);
+	Timestamp upto = merge(s, from, to);
+	fold(s, upto == null ? from : upto, to);
+	return s;
+    }
+
+    private void load() {
+	Sketch s = Sketch.create(kind);
+	Timestamp upto = merge(s, null, null);
+	long last = fold(s, upto, null);
+	if (last == Long.MIN_VALUE && upto != null) last = HistoryCache.micros(upto);
+	current = s;
+	newest = last;
+	stale = false;
+    }
+
+    // Merges the persisted sketches with from < time < to into s and
+    // returns the time of the last, or null.
+    private Timestamp merge(Sketch s, Timestamp from, Timestamp to) {
+	if (source == null) return null;
+	Timestamp retval = null;
+	try {
+	    PreparedStatement stmt = conn.prepareStatement("SELECT time, state FROM persistent_sketches WHERE relname = ? AND " +
+							   "time > coalesce(?::timestamptz, '-infinity') AND time < coalesce(?::timestamptz, 'infinity') ORDER BY time");
+	    stmt.setString(1, dbName.toLowerCase());
+	    stmt.setTimestamp(2, from);
+	    stmt.setTimestamp(3, to);
+	    ResultSet rs = stmt.executeQuery();
+	    while (rs.next()) {
+		retval = rs.getTimestamp(1);
+		s.merge(Sketch.decode(kind, rs.getBytes(2)));
+	    }
+	    rs.close();
+	    stmt.close();
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	}
+	return retval;
+    }
+
+    // Adds the values of the rows with from < time < to to s and
+    // returns the time of the last row, or Long.MIN_VALUE.
+    private long fold(Sketch s, Timestamp from, Timestamp to) {
+	long retval = Long.MIN_VALUE;
+	try {
+	    PreparedStatement stmt = conn.prepareStatement("SELECT time, " + column + " FROM " + fromDB + " WHERE " +
+							   "time > coalesce(?::timestamptz, '-infinity') AND time < coalesce(?::timestamptz, 'infinity') ORDER BY time");
+	    stmt.setTimestamp(1, from);
+	    stmt.setTimestamp(2, to);
+	    ResultSet rs = stmt.executeQuery();
+	    while (rs.next()) {
+		retval = HistoryCache.micros(rs.getTimestamp(1));
+		s.add(rs.getObject(2));
+	    }
+	    rs.close();
+	    stmt.close();
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	}
+	return retval;
+    }
+
+    // A row after those folded is added to the sketch.  A row that may
+    // have been folded already drops a digest, whose weights would
+    // count it twice, but is added to a HyperLogLog, where it counts
+    // once anyway.
+    private synchronized void inserted(Notification n) {
+	if (stale) return;
+	NotificationPayload payload = NotificationPayload.parse(n.getParameter());
+	if (payload.time() == null || source == null || !payload.hasColumn(column)) {
+	    stale = true;
+	    return;
+	}
+	long t = HistoryCache.micros(payload.time());
+	if (t <= newest && kind.equals(Sketch.QUANTILE)) {
+	    stale = true;
+	    return;
+	}
+	try {
+	    String text = payload.column(column);
+	    current.add(text == null ? null : source.valueCodec(conn).parse(text));
+	    if (t > newest) newest = t;
+	} catch (RuntimeException e) {
+	    stale = true;
+	}
+    }
+
+    // Called by the Synchronizer of the instance before its first
+    // insert: the values inserted after the last persisted sketch, by
+    // a previous run, are pending.
+    synchronized void seed() {
+	if (seeded || source == null) return;
+	seeded = true;
+	pending = Sketch.create(kind);
+	Timestamp upto = null;
+	try {
+	    PreparedStatement stmt = conn.prepareStatement("SELECT max(time) FROM persistent_sketches WHERE relname = ?");
+	    stmt.setString(1, dbName.toLowerCase());
+	    ResultSet rs = stmt.executeQuery();
+	    if (rs.next()) upto = rs.getTimestamp(1);
+	    rs.close();
+	    stmt.close();
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	}
+	long last = fold(pending, upto, null);
+	if (last != Long.MIN_VALUE) {
+	    pendingCount++;
+	    pendingUpto = HistoryCache.timestamp(last);
+	}
+    }
+
+    // called by the Synchronizer with the value and time of each row it
+    // inserts
+    synchronized void pend(Object value, Timestamp time) {
+	if (pending == null) return;
+	pending.add(value);
+	pendingCount++;
+	if (pendingUpto == null || time.after(pendingUpto)) pendingUpto = time;
+    }
+
+    // Called by the Synchronizer at each checkpoint: takes the pending
+    // sketch to be persisted with the checkpoint, and returns false if
+    // there is none.
+    synchronized boolean take() {
+	if (pending == null || pendingCount == 0 || taken != null) return false;
+	taken = pending;
+	takenUpto = pendingUpto;
+	pending = Sketch.create(kind);
+	pendingCount = 0;
+	pendingUpto = null;
+	return true;
+    }
+
+    // binds the row of the taken sketch from parameter i on
+    synchronized void bindTaken(PreparedStatement stmt, int i) throws SQLException {
+	stmt.setString(i, dbName.toLowerCase());
+	stmt.setTimestamp(i + 1, takenUpto);
+	stmt.setBytes(i + 2, taken.toBytes());
+    }
+
+    // after the checkpoint: a taken sketch that was not persisted is
+    // pending again
+    synchronized void taken(boolean persisted) {
+	if (taken == null) return;
+	if (!persisted && pending != null) {
+	    pending.merge(taken);
+	    pendingCount++;
+	    if (pendingUpto == null || takenUpto.after(pendingUpto)) pendingUpto = takenUpto;
+	}
+	taken = null;
+	takenUpto = null;
+    }
+
+    // called by the Synchronizer when it closes
+    synchronized void flush() {
+	if (pending == null || pendingCount == 0) return;
+	try {
+	    PreparedStatement stmt = conn.prepareStatement("INSERT INTO persistent_sketches VALUES (?, ?, ?)");
+	    stmt.setString(1, dbName.toLowerCase());
+	    stmt.setTimestamp(2, pendingUpto);
+	    stmt.setBytes(3, pending.toBytes());
+	    stmt.executeUpdate();
+	    stmt.close();
+	    if (!conn.getAutoCommit()) conn.commit();
+	    pending = Sketch.create(kind);
+	    pendingCount = 0;
+	    pendingUpto = null;
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	}
+    }
+
+    public void discard() {
+	synchronized (this) {
+	    pending = null;
+	}
+	if (hub != null) hub.unlisten(baseName + "_channel", onInsert);
+	try {
+	    PreparedStatement stmt = conn.prepareStatement("DELETE FROM persistent_sketches WHERE relname = ?");
+	    stmt.setString(1, dbName.toLowerCase());
+	    stmt.executeUpdate();
+	    stmt.close();
+	    if (!conn.getAutoCommit()) conn.commit();
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	}
+	super.discard();
+    }
+}
@@ -0,0 +1,76 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.Timestamp;
+
+// Where persistent signals keep their rows.  A backend registers the
+// instances, creates their relations, and makes the signals and views
+// that read them.  The rows of an instance are reached through its
+// SeriesStore.  The backend in use is selected by Backends.
+public interface StorageBackend {
+
+    // creates the relation of an instance if it does not exist yet and
+    // marks the instance active
+    public void create(String name, String[] columns) throws DoubleInstanceException;
+
+    // as create, applying the storage policy of the signal class
+    default void create(String name, String[] columns, StoragePolicy policy) throws DoubleInstanceException {
+	create(name, columns);
+    }
+
+    // marks all instances inactive
+    public void reset();
+
+    public SeriesStore series(String name);
+
+    // adds a column "name TYPE" to the relation of an instance
+    default void addColumn(String name, String column) {
+	series(name).addColumn(column);
+    }
+
+    public <T> PersistentSignal<T> newPersistent(String baseName, String name, Synchronizer sync);
+
+    public <T> PersistentSignal<T> newWithin(Timestamp ts, String interval, String baseName, String name, String fromName, String columnName);
+
+    public <T> PersistentSignal<T> newLastDiff(int offset, String baseName, String name, String fromName, String columnName);
+
+    public PersistentSignal<Double> newDistance(PersistentSignal p, String baseName, String name, String fromName, String columnName);
+
+    public <T> PersistentSignal<T> newAnalytic(String opName, String baseName, String name, String fromName, String columnName);
+
+    public <T> PersistentSignal<T> newFirst(String baseName, String name, String fromName, String columnName);
+
+    // a SketchSignal of the given kind (see Sketch); q is the quantile
+    public <T> PersistentSignal<T> newSketch(String kind, double q, String baseName, String name, String fromName, String columnName);
+
+    public <T> PersistentSignal<T> newBucket(String interval, String aggregate, boolean materialized, String baseName, String name, String fromName, String columnName);
+}
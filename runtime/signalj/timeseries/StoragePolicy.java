@@ -0,0 +1,85 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.lang.annotation.Annotation;
+import signalj.timeseries.annotation.*;
+
+// The storage settings of a signal class, taken from its annotations
+// @retention, @compressAfter, @chunkInterval and @downsample.  Each is
+// an interval literal, or null if not given.  With @sharedTable the
+// instances share the relation named by the base name of their names,
+// <package>_<class>, which the constructors generated for the class
+// pass.  Backends that cannot apply a setting ignore it.
+public class StoragePolicy {
+
+    public static final StoragePolicy NONE = new StoragePolicy();
+
+    String retention = null;
+    String compressAfter = null;
+    String chunkInterval = null;
+    String downsample = null;
+    String sharedTable = null;
+    int partitions = 0;
+
+    public static StoragePolicy of(Class<?> clazz) {
+	return of(clazz, null);
+    }
+
+    public static StoragePolicy of(Class<?> clazz, String baseName) {
+	if (clazz == null) return NONE;
+	StoragePolicy p = new StoragePolicy();
+	for (Annotation a : clazz.getAnnotations()) {
+	    if (a instanceof retention) p.retention = ((retention)a).value();
+	    if (a instanceof compressAfter) p.compressAfter = ((compressAfter)a).value();
+	    if (a instanceof chunkInterval) p.chunkInterval = ((chunkInterval)a).value();
+	    if (a instanceof downsample) p.downsample = ((downsample)a).value();
+	    if (a instanceof sharedTable) {
+		// the class name does not tell the base name, e.g. of a
+		// nested class or in the default package
+		if (baseName == null) throw new IllegalArgumentException("@sharedTable without the base name of " + clazz.getName() + "; recompile the class");
+		p.sharedTable = baseName.toLowerCase();
+		p.partitions = Math.max(((sharedTable)a).partitions(), 1);
+	    }
+	}
+	return p;
+    }
+
+    public String retention() { return retention; }
+
+    public String compressAfter() { return compressAfter; }
+
+    public String chunkInterval() { return chunkInterval; }
+
+    public String downsample() { return downsample; }
+
+    public String sharedTable() { return sharedTable; }
+}
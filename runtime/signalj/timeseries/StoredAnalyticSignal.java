@@ -0,0 +1,84 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.Timestamp;
+import java.util.Vector;
+
+// count, avg, sum, max or min over all rows of the source.  Over a
+// column of the instance the store computes it; over another view it
+// is folded here.
+class StoredAnalyticSignal<T> extends StoredViewSignal<T> {
+
+    private String opName;
+
+    StoredAnalyticSignal(StoredBackend backend, String opName, String baseName, String name, String fromName, String columnName) {
+	super(backend, baseName, name, fromName, columnName);
+	this.opName = opName;
+    }
+
+    TimeCursor<Object> rows(Timestamp from, Timestamp to) {
+	return cursor(new Vector<Timestamp>(), new Vector<Object>());
+    }
+
+    public T __signalj__get() {
+	Object v = columnName != null ? series.aggregate(opName, columnName, null) : fold();
+	if (opName.equals("count")) return (T)(Integer)(v == null ? 0 : ((Number)v).intValue());
+	if (opName.equals("avg") && v != null) return (T)(Double)((Number)v).doubleValue();
+	return (T)v;
+    }
+
+    private Object fold() {
+	TimeCursor<Object> c = source(null, null);
+	Object acc = null;
+	long count = 0;
+	while (c.next()) {
+	    Object v = c.value();
+	    if (v == null) continue;
+	    count++;
+	    switch (opName) {
+	    case "sum": case "avg":
+		acc = plus(acc, widen(v));
+		break;
+	    case "max":
+		if (acc == null || ((Comparable)v).compareTo(acc) > 0) acc = v;
+		break;
+	    case "min":
+		if (acc == null || ((Comparable)v).compareTo(acc) < 0) acc = v;
+		break;
+	    }
+	}
+	c.close();
+	if (opName.equals("count")) return count;
+	if (opName.equals("avg")) return count == 0 ? null : ((Number)acc).doubleValue() / count;
+	return acc;
+    }
+}
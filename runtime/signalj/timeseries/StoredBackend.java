@@ -0,0 +1,110 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.Timestamp;
+import java.util.HashMap;
+
+// Base of the backends that keep rows without a database server.
+// Signals and views are evaluated in process over the SeriesStore of
+// each instance, opened by the subclass.  Views are registered by
+// their relation name, so that views of views find their source.
+abstract class StoredBackend implements StorageBackend {
+
+    private HashMap<String, SeriesStore> stores = new HashMap<String, SeriesStore>();
+    private HashMap<String, StoredSignal> views = new HashMap<String, StoredSignal>();
+
+    // opens (or creates) the rows of an instance; columns are given as
+    // "name TYPE" and may be null when only reading an existing one
+    protected abstract SeriesStore open(String name, String[] columns);
+
+    public synchronized void create(String name, String[] columns) throws DoubleInstanceException {
+	String key = name.toLowerCase();
+	if (!stores.containsKey(key)) stores.put(key, open(name, columns));
+    }
+
+    public void reset() { }
+
+    public synchronized SeriesStore series(String name) {
+	String key = name.toLowerCase();
+	SeriesStore s = stores.get(key);
+	if (s == null) {
+	    s = open(name, null);
+	    stores.put(key, s);
+	}
+	return s;
+    }
+
+    synchronized void register(String dbName, StoredSignal view) {
+	views.put(dbName.toLowerCase(), view);
+    }
+
+    synchronized void unregister(String dbName) {
+	views.remove(dbName.toLowerCase());
+    }
+
+    synchronized StoredSignal view(String dbName) {
+	return views.get(dbName.toLowerCase());
+    }
+
+    public <T> PersistentSignal<T> newPersistent(String baseName, String name, Synchronizer sync) {
+	return new StoredSignal<T>(this, baseName, name, sync);
+    }
+
+    public <T> PersistentSignal<T> newWithin(Timestamp ts, String interval, String baseName, String name, String fromName, String columnName) {
+	return new StoredWithinSignal<T>(this, ts, interval, baseName, name, fromName, columnName);
+    }
+
+    public <T> PersistentSignal<T> newLastDiff(int offset, String baseName, String name, String fromName, String columnName) {
+	return new StoredLastDiffSignal<T>(this, offset, baseName, name, fromName, columnName);
+    }
+
+    public PersistentSignal<Double> newDistance(PersistentSignal p, String baseName, String name, String fromName, String columnName) {
+	return new StoredDistanceSignal(this, p, baseName, name, fromName, columnName);
+    }
+
+    public <T> PersistentSignal<T> newAnalytic(String opName, String baseName, String name, String fromName, String columnName) {
+	return new StoredAnalyticSignal<T>(this, opName, baseName, name, fromName, columnName);
+    }
+
+    public <T> PersistentSignal<T> newFirst(String baseName, String name, String fromName, String columnName) {
+	return new StoredFirstSignal<T>(this, baseName, name, fromName, columnName);
+    }
+
+    public <T> PersistentSignal<T> newSketch(String kind, double q, String baseName, String name, String fromName, String columnName) {
+	return new StoredSketchSignal<T>(this, kind, q, baseName, name, fromName, columnName);
+    }
+
+    // without continuous aggregates, materialized is ignored
+    public <T> PersistentSignal<T> newBucket(String interval, String aggregate, boolean materialized, String baseName, String name, String fromName, String columnName) {
+	return new StoredBucketSignal<T>(this, interval, aggregate, baseName, name, fromName, columnName);
+    }
+}
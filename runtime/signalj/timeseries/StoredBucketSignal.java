@@ -0,0 +1,75 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.Timestamp;
+import java.util.Vector;
+
+// One row per bucket of the source, at the start of the bucket, as
+// BucketSignalTimescale.  Without a time cursor the value is the
+// aggregate of the latest bucket; over a column of the instance only
+// the rows of that bucket are read.
+class StoredBucketSignal<T> extends StoredViewSignal<T> {
+
+    private long width;
+    private String aggregate;
+
+    StoredBucketSignal(StoredBackend backend, String interval, String aggregate, String baseName, String name, String fromName, String columnName) {
+	super(backend, baseName, name, fromName, columnName);
+	this.width = Intervals.micros(interval);
+	this.aggregate = Buckets.check(aggregate);
+    }
+
+    TimeCursor<Object> rows(Timestamp from, Timestamp to) {
+	RangeResult r = Buckets.fold(source(from, to), width, aggregate, null);
+	Vector<Timestamp> times = new Vector<Timestamp>();
+	Vector<Object> values = new Vector<Object>();
+	for (int i = 0; i < r.size(); i++) {
+	    times.add(r.timestamp(i));
+	    values.add(r.value(i));
+	}
+	return cursor(times, values);
+    }
+
+    public T __signalj__get() {
+	Timestamp from = null;
+	if (columnName != null && timeCursor == null) {
+	    Timestamp last = series.latestTimestamp();
+	    if (last == null) return null;
+	    from = HistoryCache.timestamp(Buckets.start(HistoryCache.micros(last), width));
+	}
+	TimeCursor<Object> c = rows(from, timeCursor);
+	Object retval = null;
+	while (c.next()) retval = c.value();
+	c.close();
+	return (T)retval;
+    }
+}
@@ -0,0 +1,62 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.Timestamp;
+import java.util.Vector;
+
+// sqrt(l*l + r*r) of each row of the source and the value of the other
+// signal as of that row (see AsOfJoin).
+class StoredDistanceSignal extends StoredViewSignal<Double> {
+
+    private PersistentSignal other;
+
+    StoredDistanceSignal(StoredBackend backend, PersistentSignal p, String baseName, String name, String fromName, String columnName) {
+	super(backend, baseName, name, fromName, columnName);
+	this.other = p;
+    }
+
+    TimeCursor<Object> rows(Timestamp from, Timestamp to) {
+	Vector<Timestamp> times = new Vector<Timestamp>();
+	Vector<Object> values = new Vector<Object>();
+	TimeCursor<Object> right = ((StoredSignal)other).rows(null, to);
+	AsOfJoin.<Object,Object,Double>merge(source(from, to), right, this::combine, (t, v) -> {
+		times.add(t);
+		values.add(v);
+	    });
+	return cursor(times, values);
+    }
+
+    private Double combine(Object left, Object right) {
+	double l = ((Number)left).doubleValue(), r = ((Number)right).doubleValue();
+	return Math.sqrt(l*l + r*r);
+    }
+}
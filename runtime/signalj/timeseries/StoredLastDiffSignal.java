@@ -0,0 +1,66 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.Timestamp;
+import java.util.Vector;
+
+// Each row of the source minus the row offset rows later, at the time
+// of the former.
+class StoredLastDiffSignal<T> extends StoredViewSignal<T> {
+
+    private int offset;
+
+    StoredLastDiffSignal(StoredBackend backend, int offset, String baseName, String name, String fromName, String columnName) {
+	super(backend, baseName, name, fromName, columnName);
+	this.offset = offset;
+    }
+
+    TimeCursor<Object> rows(Timestamp from, Timestamp to) {
+	// the later rows may lie after to
+	Vector<Timestamp> times = new Vector<Timestamp>();
+	Vector<Object> values = new Vector<Object>();
+	TimeCursor<Object> c = source(from, null);
+	while (c.next()) {
+	    times.add(c.time());
+	    values.add(c.value());
+	}
+	c.close();
+	Vector<Timestamp> rtimes = new Vector<Timestamp>();
+	Vector<Object> rvalues = new Vector<Object>();
+	for (int i = 0; i + offset < times.size(); i++) {
+	    if (to != null && !times.elementAt(i).before(to)) break;
+	    rtimes.add(times.elementAt(i));
+	    rvalues.add(minus(values.elementAt(i), values.elementAt(i + offset)));
+	}
+	return cursor(rtimes, rvalues);
+    }
+}
@@ -0,0 +1,422 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import signalj.Signal;
+import java.sql.Timestamp;
+import io.reactivex.functions.Consumer;
+import io.reactivex.Flowable;
+import io.reactivex.Maybe;
+import java.util.Collections;
+import java.util.Vector;
+
+// A persistent signal whose rows are kept in the SeriesStore of a
+// StoredBackend.  It follows TimescaleSignal: reads at a time cursor
+// see the last row before the cursor, appends notify the downstream
+// instances and checkpoints start their recovery, but all of it
+// happens in process.
+class StoredSignal<T> extends Signal<T> implements PersistentSignal<T> {
+
+    private T current;
+    protected String name;
+    protected String baseName;
+    protected String dbName;
+    protected StoredBackend backend;
+    protected SeriesStore series;
+    private Synchronizer sync;
+    private SignalClassInstance signalClassInst;
+    private Vector<Consumer> subscribers = new Vector<Consumer>();
+    private Vector<Synchronizer> externSyncs = new Vector<Synchronizer>(); // downstreams
+    private PropagationGate gate = new PropagationGate(() -> dbName, this::catchUp);
+    private java.util.function.Consumer<Timestamp> onAppend = this::offer, onCheckpoint = this::checkPoint;
+
+    protected Timestamp timeCursor = null, lastCheckPoint = null, currentCheckPoint = null;
+
+    // for views
+    protected StoredSignal(StoredBackend backend, String baseName, String name) {
+	this.backend = backend;
+	this.baseName = baseName;
+	this.name = name;
+	this.dbName = baseName + "_" + name;
+    }
+
+    StoredSignal(StoredBackend backend, String baseName, String name, Synchronizer sync) {
+	this.backend = backend;
+	this.baseName = baseName;
+	this.dbName = baseName;
+	this.name = name;
+	this.sync = sync;
+	this.series = backend.series(baseName);
+	sync.setSeries(series);
+    }
+
+    public String name() { return name; }
+
+    public String dbName() { return dbName; }
+
+    public PersistentSignal<T> setName(String name) {
+	this.name = name;
+	return this;
+    }
+
+    // Rows of this signal with from <= time < to, in time order; a
+    // null bound is open.
+    TimeCursor<Object> rows(Timestamp from, Timestamp to) {
+	return series.range(name, from, before(to));
+    }
+
+    static Timestamp before(Timestamp t) {
+	return t == null ? null : HistoryCache.timestamp(HistoryCache.micros(t) - 1);
+    }
+
+    public T value() { return __signalj__get(); }
+
+    public T __signalj__get() {
+	if (timeCursor == null) return current;
+	return (T)series.read(name, timeCursor);
+    }
+
+    public Flowable<T> valueRx() {
+	return Maybe.fromCallable(this::__signalj__get).toFlowable();
+    }
+
+    public ValueCodec<T> codec() { return null; }
+
+    public RangeResult readRange(Timestamp from, Timestamp to, RangeResult reuse) {
+	Vector<Long> times = new Vector<Long>();
+	Vector<Object> values = new Vector<Object>();
+	TimeCursor<Object> c = rows(from, to);
+	while (c.next()) {
+	    times.add(HistoryCache.micros(c.time()));
+	    values.add(c.value());
+	}
+	c.close();
+	return Buckets.collect(times, values, reuse);
+    }
+
+    // the rows from the first of the last count, found backwards by
+    // the series
+    public RangeResult readLast(int count, Timestamp to, RangeResult reuse) {
+	Timestamp from = count > 0 ? series.startOfLast(count, to) : null;
+	if (from == null) return Buckets.collect(new Vector<Long>(), new Vector<Object>(), reuse);
+	return readRange(from, to, reuse);
+    }
+
+    public RangeResult readBuckets(Timestamp from, Timestamp to, String interval, String aggregate, RangeResult reuse) {
+	return Buckets.fold(rows(from, to), Intervals.micros(interval), aggregate, reuse);
+    }
+
+    public void set(T value) {
+	current = value;
+	sync.delay(this, value);
+    }
+
+    public PersistentSignal<T> within(Timestamp ts, String interval, String name) {
+	return TimescaleFactory.<T>newWithin(ts, interval, baseName, name, this.name, this.name);
+    }
+
+    public PersistentSignal<T> lastDiff(int offset, String name) {
+	return TimescaleFactory.<T>newLastDiff(offset, baseName, name, this.name, this.name);
+    }
+
+    public PersistentSignal<Double> distance(PersistentSignal p, String name) {
+	return TimescaleFactory.newDistance(p, baseName, name, this.name, this.name);
+    }
+
+    public PersistentSignal<Integer> pcount(String name) {
+	return TimescaleFactory.<Integer>newAnalytic("count", baseName, name, this.name, this.name);
+    }
+
+    public PersistentSignal<Double> avg(String name) {
+	return TimescaleFactory.<Double>newAnalytic("avg", baseName, name, this.name, this.name);
+    }
+
+    public PersistentSignal<T> first(String name) {
+	return TimescaleFactory.<T>newFirst(baseName, name, this.name, this.name);
+    }
+
+    public PersistentSignal<T> psum(String name) {
+	return TimescaleFactory.<T>newAnalytic("sum", baseName, name, this.name, this.name);
+    }
+
+    public PersistentSignal<T> max(String name) {
+	return TimescaleFactory.<T>newAnalytic("max", baseName, name, this.name, this.name);
+    }
+
+    public PersistentSignal<T> min(String name) {
+	return TimescaleFactory.<T>newAnalytic("min", baseName, name, this.name, this.name);
+    }
+
+    public PersistentSignal<Double> quantile(double q, String name) {
+	return TimescaleFactory.<Double>newSketch(Sketch.QUANTILE, q, baseName, name, this.name, this.name);
+    }
+
+    public PersistentSignal<Long> distinctCount(String name) {
+	return TimescaleFactory.<Long>newSketch(Sketch.DISTINCT, 0, baseName, name, this.name, this.name);
+    }
+
+    public PersistentSignal<Double> ewma(double alpha, String name) {
+	return rolling(new Rolling(Rolling.EWMA, alpha, 0, null), name);
+    }
+
+    public PersistentSignal<Double> rollingVariance(int samples, String name) {
+	return rolling(new Rolling(Rolling.VARIANCE, 0, samples, null), name);
+    }
+
+    public PersistentSignal<Double> rollingVariance(String window, String name) {
+	return rolling(new Rolling(Rolling.VARIANCE, 0, 0, window), name);
+    }
+
+    public PersistentSignal<Double> rollingStddev(int samples, String name) {
+	return rolling(new Rolling(Rolling.STDDEV, 0, samples, null), name);
+    }
+
+    public PersistentSignal<Double> rollingStddev(String window, String name) {
+	return rolling(new Rolling(Rolling.STDDEV, 0, 0, window), name);
+    }
+
+    public PersistentSignal<Double> rollingMax(int samples, String name) {
+	return rolling(new Rolling(Rolling.MAX, 0, samples, null), name);
+    }
+
+    public PersistentSignal<Double> rollingMax(String window, String name) {
+	return rolling(new Rolling(Rolling.MAX, 0, 0, window), name);
+    }
+
+    public PersistentSignal<Double> rollingMin(int samples, String name) {
+	return rolling(new Rolling(Rolling.MIN, 0, samples, null), name);
+    }
+
+    public PersistentSignal<Double> rollingMin(String window, String name) {
+	return rolling(new Rolling(Rolling.MIN, 0, 0, window), name);
+    }
+
+    // the statistic is a column of this instance, filled by sync
+    protected PersistentSignal<Double> rolling(Rolling r, String name) {
+	return sync.addRolling(this, r, name);
+    }
+
+    public <R> PersistentSignal<R> bucket(String interval, String aggregate, String name) {
+	return bucket(interval, aggregate, false, name);
+    }
+
+    public <R> PersistentSignal<R> bucket(String interval, String aggregate, boolean materialized, String name) {
+	return TimescaleFactory.<R>newBucket(interval, aggregate, materialized, baseName, name, this.name, this.name);
+    }
+
+    // Switching needs no wait for rows in flight: appends and their
+    // events are ordered per instance in process.
+    public void setUpstream(SignalClassInstance o, SignalClassInstance n) {
+	if (o != null && !DependencyGraph.upstreams(sync).contains(o.getSynchronizer())) return;
+	sync.blockSource();
+	if (!signalClassInst.replaceUpstream(o, n)) {
+	    sync.unblockSource();
+	    return;
+	}
+	n.addDown(sync);
+	if (o != null) sync.updateSourceSync(o.getSynchronizer(), n.getSynchronizer());
+	sync.addExtern(n);
+	n.getSynchronizer().updateSource();
+	sync.updateSource();
+	sync.unblockSource();
+    }
+
+    public void updateSwitchHistory() { }
+
+    public void dbgen() { }
+
+    // The rows stay in the store; a new instance with the same ID
+    // continues them.
+    public void discard() {
+	if (series != null) {
+	    series.unlisten(onAppend);
+	    series.unlistenCheckpoint(onCheckpoint);
+	}
+	if (sync != null) sync.close();
+    }
+
+    public void resume() {
+	current = (T)series.read(name, null);
+    }
+
+    public void reset() {
+	series.clear();
+    }
+
+    public boolean isInitialized() {
+	return series.latestTimestamp() != null;
+    }
+
+    public void setIfNotInitialized(T value) {
+	if (!isInitialized()) set(value);
+    }
+
+    public void snapshot(Timestamp ts) {
+	timeCursor = ts;
+	if (sync != null) sync.snapshot(ts, false);
+    }
+
+    public Timestamp firstTimestamp() {
+	Timestamp ts = series.firstTimestamp();
+	return ts == null ? new Timestamp(System.currentTimeMillis()) : ts;
+    }
+
+    public Timestamp latestTimestamp() {
+	Timestamp ts = series.latestTimestamp();
+	return ts == null ? new Timestamp(System.currentTimeMillis()) : ts;
+    }
+
+    public void setSignalClassInst(SignalClassInstance signalClassInst) {
+	this.signalClassInst = signalClassInst;
+    }
+
+    public void pushSignalClassInst() {
+	signalClassInst.reval();
+    }
+
+    public void psubscribe(Object c) {
+	subscribers.add((Consumer)c);
+    }
+
+    public void effect() {
+	for (Consumer c : subscribers) {
+	    try {
+		c.accept(current);
+	    } catch (Exception e) {}
+	}
+    }
+
+    public Vector<Timestamp> timestampList() {
+	Vector<Timestamp> retval = new Vector<Timestamp>();
+	TimeCursor<Object> c = series.range(null, null, null);
+	while (c.next()) retval.add(c.time());
+	c.close();
+	Collections.reverse(retval);
+	return retval;
+    }
+
+    public void addExternSync(Synchronizer down) {
+	if (!externSyncs.contains(down)) externSyncs.add(down);
+	if (!sync.listenFlag) {
+	    series.listen(onAppend);
+	    sync.listenFlag = true;
+	}
+	if (!sync.listenCptFlag) {
+	    series.listenCheckpoint(onCheckpoint);
+	    sync.listenCptFlag = true;
+	}
+    }
+
+    // the earliest append dropped by the gate while it was full, and the
+    // latest one propagated again by its catch-up; guarded by the gate
+    private Timestamp droppedFrom = null, caughtUpTo = null;
+    private boolean droppedAny = false;
+
+    private void offer(Timestamp time) {
+	gate.offer(() -> {
+		if (caughtUp(time)) return;
+		propagate(time);
+	    }, () -> {
+		if (!droppedAny || (droppedFrom != null && (time == null || time.before(droppedFrom)))) droppedFrom = time;
+		droppedAny = true;
+	    });
+    }
+
+    // whether the append at time was already propagated by a catch-up
+    private boolean caughtUp(Timestamp time) {
+	synchronized (gate) {
+	    if (caughtUpTo == null) return false;
+	    if (time != null && !time.after(caughtUpTo)) return true;
+	    caughtUpTo = null;
+	    return false;
+	}
+    }
+
+    // propagates the appends the gate dropped, from the series
+    private void catchUp() {
+	Timestamp from;
+	synchronized (gate) {
+	    from = droppedFrom;
+	    droppedFrom = null;
+	    droppedAny = false;
+	}
+	RangeResult rows = from == null ? null : readRange(from, null, null);
+	if (rows == null || rows.size() == 0) {
+	    propagate(null);
+	    return;
+	}
+	for (int i = 0; i < rows.size(); i++) {
+	    propagate(rows.timestamp(i));
+	}
+	synchronized (gate) {
+	    caughtUpTo = rows.timestamp(rows.size() - 1);
+	}
+    }
+
+    private void propagate(Timestamp time) {
+	for (Synchronizer s : externSyncs) {
+	    s.notifyUpdate(signalClassInst, time);
+	}
+    }
+
+    private void checkPoint(Timestamp checkpoint) {
+	if (sync.isSourceSync()) {
+	    lastCheckPoint = currentCheckPoint;
+	    currentCheckPoint = checkpoint;
+	}
+	RecoveryScheduler.Run run = new RecoveryScheduler.Run(dbName);
+	sync.pushDownstream(lastCheckPoint, currentCheckPoint, run);
+	run.exit();
+    }
+
+    public void ensureConsistency(Timestamp lastCheckPoint, Timestamp currentCheckPoint) {
+	new ReplayEngine(sync).replay(sync.getMissingTimestamps(lastCheckPoint, currentCheckPoint));
+    }
+
+    public void block() { gate.block(); }
+    public void unblock() { gate.unblock(); }
+    void submit(Runnable r) { gate.submit(r); }
+    void hold(Object owner) { gate.hold(owner); }
+    void release(Object owner) { gate.release(owner); }
+    public boolean isBlocked() { return gate.isBlocked(); }
+
+    public Timestamp getImprocessingTimestamp() {
+	return latestTimestamp();
+    }
+
+    public void addDown(Synchronizer down) {
+	externSyncs.add(down);
+    }
+
+    public Vector<Synchronizer> getDownstreams() {
+	return externSyncs;
+    }
+}
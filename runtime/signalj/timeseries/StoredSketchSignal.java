@@ -0,0 +1,119 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.Timestamp;
+import java.util.Vector;
+import java.util.function.Consumer;
+
+// quantile and distinctCount over the rows of a StoredBackend, as
+// SketchSignalTimescale.  The sketch of all rows is folded on the
+// first read and then updated from the appends of the instance; over
+// a view it is folded again after each append.  As the rows are in
+// process, sketches are not persisted: the first read after a restart
+// folds them once.
+class StoredSketchSignal<T> extends StoredViewSignal<T> implements SketchSignal {
+
+    private String kind;
+    private double q;
+    private SeriesStore instance;
+    private boolean stale = true;
+    private long newest;
+    private Sketch current = null;
+    private Consumer<Timestamp> onAppend = this::appended;
+
+    StoredSketchSignal(StoredBackend backend, String kind, double q, String baseName, String name, String fromName, String columnName) {
+	super(backend, baseName, name, fromName, columnName);
+	this.kind = kind;
+	this.q = q;
+	instance = backend.series(baseName);
+	instance.listen(onAppend);
+    }
+
+    TimeCursor<Object> rows(Timestamp from, Timestamp to) {
+	return cursor(new Vector<Timestamp>(), new Vector<Object>());
+    }
+
+    public T __signalj__get() {
+	if (timeCursor != null) return (T)Sketch.value(sketch(null, timeCursor), q);
+	synchronized (this) {
+	    if (stale) load();
+	    return (T)Sketch.value(current, q);
+	}
+    }
+
+    public synchronized Sketch sketch() {
+	if (stale) load();
+	return current.copy();
+    }
+
+    public Sketch sketch(Timestamp from, Timestamp to) {
+	Sketch s = Sketch.create(kind);
+	fold(s, from == null ? null : HistoryCache.timestamp(HistoryCache.micros(from) + 1), to);
+	return s;
+    }
+
+    private void load() {
+	current = Sketch.create(kind);
+	newest = fold(current, null, null);
+	stale = false;
+    }
+
+    // adds the rows with from <= time < to to s and returns the time
+    // of the last, or Long.MIN_VALUE
+    private long fold(Sketch s, Timestamp from, Timestamp to) {
+	long retval = Long.MIN_VALUE;
+	TimeCursor<Object> c = source(from, to);
+	while (c.next()) {
+	    retval = HistoryCache.micros(c.time());
+	    s.add(c.value());
+	}
+	c.close();
+	return retval;
+    }
+
+    // as SketchSignalTimescale.inserted
+    private synchronized void appended(Timestamp t) {
+	if (stale) return;
+	long micros = HistoryCache.micros(t);
+	if (columnName == null || (micros <= newest && kind.equals(Sketch.QUANTILE))) {
+	    stale = true;
+	    return;
+	}
+	current.add(series.read(columnName, HistoryCache.timestamp(micros + 1)));
+	if (micros > newest) newest = micros;
+    }
+
+    public void discard() {
+	instance.unlisten(onAppend);
+	super.discard();
+    }
+}
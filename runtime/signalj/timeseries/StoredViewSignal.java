@@ -0,0 +1,224 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Vector;
+
+// Base of the views of a StoredBackend, the in-process counterparts of
+// the SQL views of TimescaleViewSignal.  A view reads a column of its
+// instance or, when columnName is null, the view named fromName of the
+// same instance, and computes its rows from them.
+abstract class StoredViewSignal<T> extends StoredSignal<T> {
+
+    protected String fromName;
+    protected String columnName;
+
+    StoredViewSignal(StoredBackend backend, String baseName, String name, String fromName, String columnName) {
+	super(backend, baseName, name);
+	this.fromName = fromName;
+	this.columnName = columnName;
+	if (columnName != null) series = backend.series(baseName);
+	backend.register(dbName, this);
+    }
+
+    // rows of the source with from <= time < to
+    protected TimeCursor<Object> source(Timestamp from, Timestamp to) {
+	if (columnName != null) return series.range(columnName, from, before(to));
+	StoredSignal v = backend.view(baseName + "_" + fromName);
+	return v == null ? cursor(new Vector<Timestamp>(), new Vector<Object>()) : v.rows(from, to);
+    }
+
+    abstract TimeCursor<Object> rows(Timestamp from, Timestamp to);
+
+    // As TimescaleViewSignal, the view is read at its first row without
+    // a time cursor.
+    public T __signalj__get() {
+	TimeCursor<Object> c = timeCursor == null ? rows(null, null) : rows(null, timeCursor);
+	Object retval = null;
+	while (c.next()) {
+	    retval = c.value();
+	    if (timeCursor == null) break;
+	}
+	c.close();
+	return (T)retval;
+    }
+
+    public PersistentSignal<T> within(Timestamp ts, String interval, String name) {
+	return TimescaleFactory.<T>newWithin(ts, interval, baseName, name, this.name, null);
+    }
+
+    public PersistentSignal<T> lastDiff(int offset, String name) {
+	return TimescaleFactory.<T>newLastDiff(offset, baseName, name, this.name, null);
+    }
+
+    public PersistentSignal<Double> distance(PersistentSignal p, String name) {
+	return TimescaleFactory.newDistance(p, baseName, name, this.name, null);
+    }
+
+    public PersistentSignal<Integer> pcount(String name) {
+	return TimescaleFactory.<Integer>newAnalytic("count", baseName, name, this.name, null);
+    }
+
+    public PersistentSignal<Double> avg(String name) {
+	return TimescaleFactory.<Double>newAnalytic("avg", baseName, name, this.name, null);
+    }
+
+    public PersistentSignal<T> psum(String name) {
+	return TimescaleFactory.<T>newAnalytic("sum", baseName, name, this.name, null);
+    }
+
+    public PersistentSignal<T> max(String name) {
+	return TimescaleFactory.<T>newAnalytic("max", baseName, name, this.name, null);
+    }
+
+    public PersistentSignal<T> min(String name) {
+	return TimescaleFactory.<T>newAnalytic("min", baseName, name, this.name, null);
+    }
+
+    public PersistentSignal<Double> quantile(double q, String name) {
+	return TimescaleFactory.<Double>newSketch(Sketch.QUANTILE, q, baseName, name, this.name, null);
+    }
+
+    public PersistentSignal<Long> distinctCount(String name) {
+	return TimescaleFactory.<Long>newSketch(Sketch.DISTINCT, 0, baseName, name, this.name, null);
+    }
+
+    // views have no rows of their own to roll over
+    protected PersistentSignal<Double> rolling(Rolling r, String name) {
+	throw new UnsupportedOperationException("rolling statistics of a view: " + name);
+    }
+
+    public <R> PersistentSignal<R> bucket(String interval, String aggregate, String name) {
+	return bucket(interval, aggregate, false, name);
+    }
+
+    public <R> PersistentSignal<R> bucket(String interval, String aggregate, boolean materialized, String name) {
+	return TimescaleFactory.<R>newBucket(interval, aggregate, materialized, baseName, name, this.name, null);
+    }
+
+    public PersistentSignal<T> first(String name) {
+	return TimescaleFactory.<T>newFirst(baseName, name, this.name, null);
+    }
+
+    public void discard() {
+	backend.unregister(dbName);
+    }
+
+    public void resume() { }
+
+    public void reset() { }
+
+    public boolean isInitialized() {
+	TimeCursor<Object> c = rows(null, null);
+	boolean retval = c.next();
+	c.close();
+	return retval;
+    }
+
+    public Timestamp firstTimestamp() {
+	TimeCursor<Object> c = rows(null, null);
+	Timestamp ts = c.next() ? c.time() : new Timestamp(System.currentTimeMillis());
+	c.close();
+	return ts;
+    }
+
+    public Timestamp latestTimestamp() {
+	Vector<Timestamp> l = timestampList();
+	return l.isEmpty() ? new Timestamp(System.currentTimeMillis()) : l.firstElement();
+    }
+
+    public Vector<Timestamp> timestampList() {
+	Vector<Timestamp> retval = new Vector<Timestamp>();
+	TimeCursor<Object> c = rows(null, null);
+	while (c.next()) retval.add(c.time());
+	c.close();
+	Collections.reverse(retval);
+	return retval;
+    }
+
+    // override to make this method no-effect on view signals
+    public void addExternSync(Synchronizer sync) { }
+
+    // a cursor over rows already in memory, in ascending order of time
+    static TimeCursor<Object> cursor(Vector<Timestamp> times, Vector<Object> values) {
+	return new TimeCursor<Object>() {
+	    private Iterator<Timestamp> ti = times.iterator();
+	    private Iterator<Object> vi = values.iterator();
+	    private Timestamp time = null;
+	    private Object value = null;
+
+	    public boolean next() {
+		if (!ti.hasNext()) return false;
+		time = ti.next();
+		value = vi.next();
+		return true;
+	    }
+
+	    public Timestamp time() { return time; }
+
+	    public Object value() { return value; }
+
+	    public void close() { }
+	};
+    }
+
+    // Arithmetic on column values keeps the type of the left operand,
+    // as SQL does for columns of the same type.
+    static Object minus(Object a, Object b) {
+	if (a == null || b == null) return null;
+	Number x = (Number)a, y = (Number)b;
+	if (a instanceof Integer) return x.intValue() - y.intValue();
+	if (a instanceof Long) return x.longValue() - y.longValue();
+	if (a instanceof Short) return (short)(x.shortValue() - y.shortValue());
+	if (a instanceof Float) return x.floatValue() - y.floatValue();
+	return x.doubleValue() - y.doubleValue();
+    }
+
+    // sums of SMALLINT and INTEGER columns are BIGINT
+    static Object widen(Object v) {
+	if (v instanceof Integer || v instanceof Short) return ((Number)v).longValue();
+	return v;
+    }
+
+    static Object plus(Object a, Object b) {
+	if (a == null) return b;
+	if (b == null) return a;
+	Number x = (Number)a, y = (Number)b;
+	if (a instanceof Integer) return x.intValue() + y.intValue();
+	if (a instanceof Long) return x.longValue() + y.longValue();
+	if (a instanceof Short) return (short)(x.shortValue() + y.shortValue());
+	if (a instanceof Float) return x.floatValue() + y.floatValue();
+	return x.doubleValue() + y.doubleValue();
+    }
+}
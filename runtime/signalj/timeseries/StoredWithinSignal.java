@@ -0,0 +1,59 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.Timestamp;
+
+// The rows of the source after ts - interval.  As the SQL view is
+// redefined on each snapshot, the window follows the time cursor;
+// with Timeseries.now it ends at the time of the read.
+class StoredWithinSignal<T> extends StoredViewSignal<T> {
+
+    private Timestamp ts;
+    private long interval;
+
+    StoredWithinSignal(StoredBackend backend, Timestamp ts, String interval, String baseName, String name, String fromName, String columnName) {
+	super(backend, baseName, name, fromName, columnName);
+	this.ts = ts;
+	this.interval = Intervals.micros(interval);
+    }
+
+    public void snapshot(Timestamp ts) {
+	super.snapshot(ts);
+	this.ts = ts;
+    }
+
+    TimeCursor<Object> rows(Timestamp from, Timestamp to) {
+	Timestamp end = ts == null || ts == Timeseries.now ? new Timestamp(System.currentTimeMillis()) : ts;
+	Timestamp lower = HistoryCache.timestamp(HistoryCache.micros(end) - interval + 1);
+	return source(from == null || from.before(lower) ? lower : from, to);
+    }
+}
@@ -0,0 +1,79 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+// A connection outside autocommit for the reads streamed with a fetch
+// size; the PostgreSQL driver fetches the whole result at once under
+// autocommit.  Several cursors may be open over it: its transaction
+// ends when the last of them is released.
+class StreamingConnection {
+
+    private DBEndpoint endpoint;
+    private Connection conn = null;
+    private int open = 0;
+
+    StreamingConnection(DBEndpoint endpoint) {
+	this.endpoint = endpoint;
+    }
+
+    synchronized Connection acquire() throws SQLException {
+	if (conn == null || conn.isClosed()) {
+	    conn = endpoint.connect();
+	    conn.setAutoCommit(false);
+	    open = 0;
+	}
+	open++;
+	return conn;
+    }
+
+    synchronized void release() {
+	if (open == 0 || --open > 0 || conn == null) return;
+	try {
+	    conn.rollback();
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	    close();
+	}
+    }
+
+    synchronized void close() {
+	try {
+	    if (conn != null) conn.close();
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	}
+	conn = null;
+	open = 0;
+    }
+}
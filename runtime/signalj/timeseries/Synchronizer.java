@@ -31,31 +31,72 @@
 package signalj.timeseries;
 
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.sql.*;
 import java.lang.annotation.*;
 import signalj.timeseries.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 public class Synchronizer {
     private String dbName;
     private Connection conn;
+    private StreamingConnection streaming = null; // cursors and preloads
+    private ReactiveStore store = null;
+    private SeriesStore series = null; // rows kept by a backend other than TimescaleDB
     private int size = 0, delay = 0;
     private SignalClassInstance thisSignalClassInstance;
-    private HashMap<PersistentSignal, String> map;
+    private HashMap<PersistentSignal, Object> map;
+    private PreparedStatement insertStmt = null;
+    private int batched = -1; // rows added to insertStmt while batching, or -1
+    private Vector<PersistentSignal> insertColumns = null;
     private Vector<SignalClassInstance> externList; // upstreams;
     private Vector<Synchronizer> originalSources; // source signals;
     private HashMap<SignalClassInstance, Boolean> bufferlessMap;
-    private HashMap<String, Queue<Timestamp>> bufferedMap;
+    private HashMap<String, TimestampRing> bufferedMap;
+    private int bufferCapacity = 4096;
+    private String overflow = "block";
+    private HashSet<SignalClassInstance> held = new HashSet<SignalClassInstance>(); // upstreams blocked by full buffers
+    private Vector<SignalClassInstance> releasable = new Vector<SignalClassInstance>(); // released outside the monitor
     private Timestamp timeCursor = null, lastCheckPoint = null;
     private boolean union = true, bufferless = true;
     private int interval = -1, checkpointProceedCount = -1;
     private Vector<Synchronizer> sourceSyncs;
-    private Vector<Thread> sourceThreads;
     //    private Synchronizer checkpointSynchronizer = null;
     private Map<Timestamp, Integer> waitListMap = new HashMap<Timestamp, Integer>();
     private List<Synchronizer> listeners = new ArrayList<Synchronizer>();
 
     public boolean listenFlag = false, listenCptFlag = false;
-    private Thread checkpointTimer = null;
+    private ScheduledFuture<?> checkpointTask = null;
+
+    // coalescing of upstream notifications (@coalesce); the timer only
+    // hands the flush to the worker pool
+    private static ScheduledExecutorService coalescer = Executors.newSingleThreadScheduledExecutor(r -> {
+	    Thread t = new Thread(r, "signalj-coalescer");
+	    t.setDaemon(true);
+	    return t;
+	});
+    private int coalesceWindow = 0, coalesceBatch = 0, coalesced = 0;
+    private LinkedHashMap<SignalClassInstance, Timestamp> watermarks = new LinkedHashMap<SignalClassInstance, Timestamp>();
+    private ScheduledFuture<?> pendingFlush = null;
+    // latest row time of each upstream, as carried by notifications
+    private HashMap<SignalClassInstance, Timestamp> latestSeen = new HashMap<SignalClassInstance, Timestamp>();
+    // latest row time of this instance's table, null if not known
+    private volatile Timestamp latest = null;
+    // sketch signals of the columns of this instance, updated on insert
+    private Vector<SketchSignalTimescale> sketches = new Vector<SketchSignalTimescale>();
+    // rolling statistics of the columns, filled by delay
+    private Vector<Rolling> rollings = new Vector<Rolling>();
+    // the time of the row being filled without a time cursor, and of
+    // the last such row, in microseconds
+    private Timestamp rowTime = null;
+    private long lastRowTime = Long.MIN_VALUE;
+    // held by a replay reading this instance (see ReplayEngine)
+    private ReentrantLock replayLock = new ReentrantLock();
 
     public Synchronizer(String dbName, SignalClassInstance inst) {
 	this.dbName = dbName;
@@ -63,13 +104,18 @@ public class Synchronizer {
 	Class<?> clazz = thisSignalClassInstance.getClass();
 	Annotation[] anns = clazz.getAnnotations();
 	bufferlessMap = new HashMap<SignalClassInstance, Boolean>();
-	bufferedMap = new HashMap<String, Queue<Timestamp>>();
+	bufferedMap = new HashMap<String, TimestampRing>();
 	for (Annotation a : anns) {
 	    if (a instanceof bufferless) {
 		bufferless = true;
 	    }
 	    if (a instanceof buffered) {
 		bufferless = false;
+		bufferCapacity = ((buffered)a).capacity();
+		overflow = ((buffered)a).overflow();
+		if (!overflow.equals("block") && !overflow.equals("dropOldest") && !overflow.equals("spill")) {
+		    throw new IllegalArgumentException("unknown overflow policy: " + overflow);
+		}
 	    }
 	    if (a instanceof mode) {
 		if (((mode)a).value().equals("intersection")) {
@@ -78,6 +124,10 @@ public class Synchronizer {
 		    union = false;
 		}
 	    }
+	    if (a instanceof coalesce) {
+		coalesceWindow = Math.max(((coalesce)a).value(), 0);
+		coalesceBatch = Math.max(((coalesce)a).batch(), 0);
+	    }
 	    if (a instanceof checkpointInterval) {
 		int duration = ((checkpointInterval)a).value();
 		//		System.out.println("getting @checkpointInterval: " + duration);
@@ -85,17 +135,57 @@ public class Synchronizer {
 		interval = duration;
 	    }
 	}
-	map = new HashMap<PersistentSignal, String>();
+	map = new HashMap<PersistentSignal, Object>();
 	externList = new Vector<SignalClassInstance>();
 	originalSources = new Vector<Synchronizer>();
 	sourceSyncs = new Vector<Synchronizer>();
-	sourceThreads = new Vector<Thread>();
     }
 
     public void setConnection(Connection conn) {
 	this.conn = conn;
+	closeInsert();
+    }
+
+    // set when persistence goes through R2DBC
+    void setStore(ReactiveStore store) {
+	this.store = store;
+    }
+
+    // set by signals of backends that keep rows outside TimescaleDB;
+    // appends, checkpoints and checkpoint scans then go through it
+    public void setSeries(SeriesStore series) {
+	this.series = series;
+    }
+
+    String dbName() { return dbName; }
+
+    ReentrantLock replayLock() { return replayLock; }
+
+    void addSketch(SketchSignalTimescale sketch) {
+	sketches.add(sketch);
+    }
+
+    // Adds a rolling statistic of source as a column of this instance.
+    // delay computes it from each value of source, so that it is
+    // inserted with the row and read like any persistent signal.
+    PersistentSignal<Double> addRolling(PersistentSignal source, Rolling rolling, String name) {
+	Backends.current().addColumn(dbName, name + " DOUBLE PRECISION");
+	PersistentSignal<Double> ps = TimescaleFactory.newPersistent(dbName, name, this);
+	rolling.attach(source, ps);
+	rollings.add(rolling);
+	add(ps);
+	ps.setSignalClassInst(thisSignalClassInstance);
+	ps.resume();
+	closeInsert();
+	return ps;
+    }
+
+    private void flushSketches() {
+	for (SketchSignalTimescale s : sketches) s.flush();
     }
 
+    Timestamp getTimeCursor() { return timeCursor; }
+
     public void snapshot(Timestamp ts, boolean externFlag) {
 	timeCursor = ts;
 	if (externFlag) {
@@ -111,59 +201,68 @@ public class Synchronizer {
 	delay++;
     }
 
-    class CheckPointTimer implements Runnable {
-	private int interval;
+    // Starts a checkpoint; executed by sources.  One statement moves
+    // the checkpoint of this instance to now and returns the previous
+    // one, after inserting the sketches pending since the previous one
+    // (the first %s), so that they are persisted with it or not at all.
+    // The trigger installed with the table then notifies
+    // <table>_checkpoint, which carries the new checkpoint.
+    private static final String ADVANCE_CHECKPOINT =
+	"WITH %sold AS (SELECT time FROM persistent_instances WHERE relname = %s FOR UPDATE) " +
+	"UPDATE persistent_instances p SET time = now() FROM old WHERE p.relname = %s " +
+	"RETURNING old.time AS previous, p.time AS current";
 
-	public CheckPointTimer(int interval) {
-	    this.interval = interval;
+    private void pushCheckpointing() {
+	System.out.println("recovery initiated by " + dbName);
+	String rel = dbName.toLowerCase();
+	long start = System.nanoTime();
+	if (series != null) {
+	    lastCheckPoint = series.advanceCheckpoint();
+	    Metrics.record(dbName + ".checkpoint.update", System.nanoTime() - start);
+	    return;
 	}
-	
-	public void run() {
-	    while (true) {
-		try {
-		    Thread.sleep(interval);
-		    System.out.println("recovery initiated by " + dbName);
-		    pushCheckpointing();
-		} catch (Exception e) {
-		    e.printStackTrace();
-		}
-	    }
+	Vector<SketchSignalTimescale> taken = new Vector<SketchSignalTimescale>();
+	for (SketchSignalTimescale s : sketches) {
+	    if (s.take()) taken.add(s);
 	}
-
-	// starts the checkpointing. executed by sources.
-	private void pushCheckpointing() {
-	    try {
-		PreparedStatement query = conn.prepareStatement("SELECT time FROM persistent_instances WHERE relname = ?");
-		query.setString(1, dbName.toLowerCase());
-		ResultSet rs = query.executeQuery();
-		if (rs.next()) {
-		    lastCheckPoint = rs.getTimestamp("time");
-		}
-		query.close();
-		rs.close();
-		
-		PreparedStatement stmt = conn.prepareStatement("UPDATE persistent_instances SET time = now() WHERE relname = ?");
-		stmt.setString(1, dbName.toLowerCase());
-		stmt.execute();
-		stmt.close();
-		//		System.out.println("UPDATE on " + dbName);
-
-		PreparedStatement stmt2 = conn.prepareStatement("DO $$BEGIN CREATE TRIGGER " + dbName.toLowerCase() + "_checkpointTr AFTER UPDATE OF time ON persistent_instances FOR EACH ROW WHEN (NEW.relname = '" + dbName.toLowerCase() + "') EXECUTE PROCEDURE notify_trigger('" + dbName.toLowerCase() + "_checkpoint'); EXCEPTION WHEN duplicate_object THEN null; END;$$");
-		stmt2.execute();
-		stmt2.close();
-	    } catch (Exception e) {
-		e.printStackTrace();
+	// sketches are bound as bytes over JDBC
+	if (store != null && taken.isEmpty()) {
+	    store.query(String.format(ADVANCE_CHECKPOINT, "", "$1", "$1"), row -> ReactiveStore.timestamp(row, "previous"), rel)
+		.next()
+		.subscribe(t -> {
+			lastCheckPoint = t;
+			Metrics.record(dbName + ".checkpoint.update", System.nanoTime() - start);
+		    }, e -> e.printStackTrace());
+	    return;
+	}
+	boolean persisted = false;
+	try {
+	    StringBuilder inserts = new StringBuilder();
+	    for (int i = 0; i < taken.size(); i++) inserts.append("s" + i + " AS (INSERT INTO persistent_sketches VALUES (?, ?, ?)), ");
+	    PreparedStatement stmt = conn.prepareStatement(String.format(ADVANCE_CHECKPOINT, inserts, "?", "?"));
+	    for (int i = 0; i < taken.size(); i++) taken.elementAt(i).bindTaken(stmt, 3 * i + 1);
+	    stmt.setString(3 * taken.size() + 1, rel);
+	    stmt.setString(3 * taken.size() + 2, rel);
+	    ResultSet rs = stmt.executeQuery();
+	    persisted = true;
+	    if (rs.next()) {
+		lastCheckPoint = rs.getTimestamp("previous");
 	    }
+	    rs.close();
+	    stmt.close();
+	    Metrics.record(dbName + ".checkpoint.update", System.nanoTime() - start);
+	} catch (Exception e) {
+	    e.printStackTrace();
+	} finally {
+	    for (SketchSignalTimescale s : taken) s.taken(persisted);
 	}
     }
 
     public Timestamp getLastCheckpoint() { return lastCheckPoint; }
 
-    private void startTimer(int interval) {
-	if (checkpointTimer == null) {
-	    checkpointTimer = new Thread(new CheckPointTimer(interval*1000));
-	    checkpointTimer.start();
-	    sourceThreads.add(checkpointTimer);
+    private synchronized void startTimer(int interval) {
+	if (checkpointTask == null) {
+	    checkpointTask = CheckpointScheduler.schedule(this::pushCheckpointing, interval*1000L);
 	}
     }
 
@@ -171,14 +270,47 @@ public class Synchronizer {
 	return sourceSyncs.size() == 0;
     }
 
-    public synchronized void pushCheckPoint(Timestamp lastCheckPoint, Timestamp currentCheckPoint) {
-	System.out.println("externList.size() : " + externList.size());
-	if (checkpointProceedCount < 0) checkpointProceedCount = externList.size() - 1;
-	if (checkpointProceedCount == 0) {
-	//	System.out.println("start checkpoint procedure on " + dbName);
-	    thisSignalClassInstance.ensureConsistency(lastCheckPoint, currentCheckPoint);
+    // Called by each upstream once it has checked a checkpoint.  When
+    // the last upstream has called, this instance is checked on the
+    // recovery pool and then passes the checkpoint downstream.  The
+    // lag of a checkpoint is the time from the checkpoint until its
+    // check starts here (ms); its duration the time the check of this
+    // instance takes (ns).
+    public void pushCheckPoint(Timestamp lastCheckPoint, Timestamp currentCheckPoint) {
+	RecoveryScheduler.Run run = new RecoveryScheduler.Run(dbName);
+	pushCheckPoint(lastCheckPoint, currentCheckPoint, run);
+	run.exit();
+    }
+
+    void pushCheckPoint(Timestamp lastCheckPoint, Timestamp currentCheckPoint, RecoveryScheduler.Run run) {
+	boolean ready;
+	synchronized (this) {
+	    if (checkpointProceedCount <= 0) checkpointProceedCount = externList.size();
+	    ready = --checkpointProceedCount == 0;
+	}
+	if (!ready) return;
+	RecoveryScheduler.submit(run, () -> {
+		try {
+		    //	System.out.println("start checkpoint procedure on " + dbName);
+		    if (currentCheckPoint != null) {
+			Metrics.record(dbName + ".checkpoint.lag", System.currentTimeMillis() - currentCheckPoint.getTime());
+		    }
+		    long start = System.nanoTime();
+		    thisSignalClassInstance.ensureConsistency(lastCheckPoint, currentCheckPoint);
+		    Metrics.record(dbName + ".checkpoint.duration", System.nanoTime() - start);
+		} finally {
+		    pushDownstream(lastCheckPoint, currentCheckPoint, run);
+		}
+	    });
+    }
+
+    // passes a checkpoint on to the downstream instances
+    void pushDownstream(Timestamp lastCheckPoint, Timestamp currentCheckPoint, RecoveryScheduler.Run run) {
+	LinkedHashSet<Synchronizer> downs = new LinkedHashSet<Synchronizer>();
+	for (PersistentSignal ps : map.keySet()) {
+	    for (Object s : ps.getDownstreams()) downs.add((Synchronizer)s);
 	}
-	checkpointProceedCount--;
+	for (Synchronizer s : downs) s.pushCheckPoint(lastCheckPoint, currentCheckPoint, run);
     }
 
     public void addExtern(SignalClassInstance sci) {
@@ -186,6 +318,7 @@ public class Synchronizer {
 	
 	if (!externList.contains(sci)) {
 	    externList.add(sci);
+	    DependencyGraph.link(sci.getSynchronizer(), this);
 	    sourceSyncs = getSourceSyncs(sci, new Vector<Synchronizer>());
 	    if (interval > 0) {
 		// all sources start the checkpoint timer
@@ -201,7 +334,9 @@ public class Synchronizer {
 		if (bufferless) {
 		    bufferlessMap.put(sci,false);
 		} else {
-		    bufferedMap.put(sci.getID(), new LinkedList<Timestamp>());
+		    // a blocking ring spills what arrives after the hold
+		    // rather than dropping it
+		    bufferedMap.put(sci.getID(), new TimestampRing(bufferCapacity, !overflow.equals("dropOldest")));
 		}
 	    }
 	    sci.addExternSync(this);
@@ -224,8 +359,14 @@ public class Synchronizer {
 
     public Vector<Timestamp> getCheckPointTimestamps(Timestamp lastCheckPoint, Timestamp currentCheckPoint) {
 	Vector<Timestamp> status = new Vector<Timestamp>();
+	if (series != null) {
+	    TimeCursor<Timestamp> c = checkPointCursor(lastCheckPoint, currentCheckPoint);
+	    while (c.next()) status.add(c.time());
+	    c.close();
+	    return status;
+	}
 	try {
-	    PreparedStatement statusQuery = conn.prepareStatement("SELECT time FROM " + dbName.toLowerCase() + " WHERE time >= ? AND time <= ?");
+	    PreparedStatement statusQuery = conn.prepareStatement("SELECT time FROM " + dbName.toLowerCase() + " WHERE time >= ? AND time <= ? ORDER BY time");
 	    statusQuery.setTimestamp(1, lastCheckPoint);
 	    statusQuery.setTimestamp(2, currentCheckPoint);
 	    ResultSet statusRs = statusQuery.executeQuery();
@@ -241,6 +382,47 @@ public class Synchronizer {
 	return status;
     }
 
+    Flux<Timestamp> checkPointTimestampsRx(Timestamp lastCheckPoint, Timestamp currentCheckPoint) {
+	return store.query("SELECT time FROM " + dbName.toLowerCase() + " WHERE time >= $1 AND time <= $2 ORDER BY time",
+			   row -> ReactiveStore.timestamp(row, "time"), lastCheckPoint, currentCheckPoint);
+    }
+
+    // the timestamps of the checkpoint window, streamed in time order
+    TimeCursor<Timestamp> checkPointCursor(Timestamp lastCheckPoint, Timestamp currentCheckPoint) {
+	if (series != null) return (TimeCursor)series.range(null, lastCheckPoint, currentCheckPoint);
+	StreamingConnection sc = streaming();
+	Connection c = null;
+	try {
+	    c = sc.acquire();
+	    PreparedStatement stmt = c.prepareStatement("SELECT time, time FROM " + dbName.toLowerCase() + " WHERE time >= ? AND time <= ? ORDER BY time");
+	    stmt.setFetchSize(1000);
+	    stmt.setTimestamp(1, lastCheckPoint);
+	    stmt.setTimestamp(2, currentCheckPoint);
+	    return new ResultSetCursor<Timestamp>(stmt, sc);
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	    if (c != null) sc.release();
+	}
+	return ConsistencyCheck.cursor(new Vector<Timestamp>());
+    }
+
+    // Upstream timestamps of the checkpoint window without a row here.
+    // In intersection mode, the rows of the upstreams are paired in
+    // order as in reval.
+    public Vector<Timestamp> getMissingTimestamps(Timestamp lastCheckPoint, Timestamp currentCheckPoint) {
+	TimeCursor<Timestamp> local = checkPointCursor(lastCheckPoint, currentCheckPoint);
+	Vector<TimeCursor<?>> upstreams = new Vector<TimeCursor<?>>();
+	for (SignalClassInstance sci : externList) {
+	    upstreams.add(sci.getSynchronizer().checkPointCursor(lastCheckPoint, currentCheckPoint));
+	}
+	try {
+	    return union ? ConsistencyCheck.missingTuples(local, upstreams) : ConsistencyCheck.missing(local, upstreams);
+	} finally {
+	    local.close();
+	    for (TimeCursor<?> c : upstreams) c.close();
+	}
+    }
+
     public Vector<Vector<Timestamp>> getUpstreamCheckPointTimestamps(Timestamp lastCheckPoint, Timestamp currentCheckPoint) {
 	Vector<Vector<Timestamp>> retval = new Vector<Vector<Timestamp>>();
 	for (SignalClassInstance sci : externList) {
@@ -267,11 +449,219 @@ public class Synchronizer {
 	*/
     }
 
+    // Called when the upstream exInst has inserted a row at time, or
+    // null if the notification did not tell.  The upstream is read up
+    // to the watermark just after that row.  Without @coalesce the
+    // downstream is re-evaluated right away.  Otherwise notifications
+    // are accumulated, keeping the latest watermark of each upstream,
+    // and re-evaluated once when the window elapses or the batch is
+    // full.  In buffered intersection mode every upstream row must be
+    // paired, so notifications are never merged there.  A flush at the
+    // end of a window runs on the worker pool, in order with the
+    // propagations of the last upstream notified, so that it waits
+    // while an upstream switch holds it back.
+    public void notifyUpdate(SignalClassInstance exInst, Timestamp time) {
+	Timestamp watermark;
+	if (time == null) {
+	    watermark = new Timestamp(System.currentTimeMillis());
+	} else {
+	    watermark = HistoryCache.timestamp(HistoryCache.micros(time) + 1);
+	    synchronized (this) {
+		Timestamp seen = latestSeen.get(exInst);
+		if (seen == null || time.after(seen)) latestSeen.put(exInst, time);
+	    }
+	}
+	if ((coalesceWindow == 0 && coalesceBatch == 0) || (union && !bufferless)) {
+	    synchronized (this) {
+		update(exInst, watermark);
+	    }
+	    releaseQueued();
+	    return;
+	}
+	synchronized (this) {
+	    Timestamp w = watermarks.remove(exInst);
+	    watermarks.put(exInst, w == null || watermark.after(w) ? watermark : w);
+	    coalesced++;
+	    if (coalesceBatch > 0 && coalesced >= coalesceBatch) {
+		flush();
+	    } else if (pendingFlush == null && coalesceWindow > 0) {
+		SignalClassInstance up = exInst;
+		pendingFlush = coalescer.schedule(() -> RecoveryScheduler.execute(() -> up.getSynchronizer().submit(this::flush)),
+						  coalesceWindow, TimeUnit.MILLISECONDS);
+	    }
+	}
+	releaseQueued();
+    }
+
+    private void flush() {
+	synchronized (this) {
+	    if (pendingFlush != null) {
+		pendingFlush.cancel(false);
+		pendingFlush = null;
+	    }
+	    if (watermarks.isEmpty()) return;
+	    Metrics.record(dbName + ".coalesced", coalesced);
+	    coalesced = 0;
+	    // the upstreams that were not notified last only move their
+	    // cursors; one re-evaluation then covers all of them
+	    SignalClassInstance last = null;
+	    Timestamp max = null;
+	    for (Map.Entry<SignalClassInstance, Timestamp> e : watermarks.entrySet()) {
+		e.getKey().snapshot(e.getValue());
+		last = e.getKey();
+		if (max == null || e.getValue().after(max)) max = e.getValue();
+	    }
+	    watermarks.clear();
+	    snapshot(max, true);
+	    reval(last);
+	}
+	releaseQueued();
+    }
+
+    private void update(SignalClassInstance exInst, Timestamp watermark) {
+	exInst.snapshot(watermark);
+	snapshot(watermark, true);
+	reval(exInst);
+    }
+
     public void reval(SignalClassInstance exInst) {
+	if (store == null) {
+	    revalNow(exInst);
+	    return;
+	}
+	// Preloads what the generated reval() reads, then evaluates it
+	// in memory.  The insert it triggers is asynchronous as well.
+	Vector<Synchronizer> syncs = new Vector<Synchronizer>();
+	syncs.add(this);
+	for (SignalClassInstance sci : externList) syncs.add(sci.getSynchronizer());
+	Flux.fromIterable(syncs).flatMap(s -> s.preload()).then()
+	    .subscribe(v -> { }, e -> e.printStackTrace(), () -> {
+		    try {
+			revalNow(exInst);
+		    } finally {
+			for (Synchronizer s : syncs) s.clearPreload();
+		    }
+		    releaseQueued();
+		});
+    }
+
+    // Loads the row read at the time cursor of this instance and the
+    // latest timestamp of its table in one query.
+    Mono<Void> preload() {
+	if (store == null) return Mono.empty();
+	Timestamp cursor = timeCursor;
+	String table = dbName.toLowerCase();
+	String sql = "SELECT l.latest AS __latest, r.* FROM (SELECT max(time) AS latest FROM " + table + ") l " +
+	    "LEFT JOIN LATERAL (SELECT * FROM " + table + (cursor == null ? "" : " WHERE time < $1") +
+	    " ORDER BY time DESC LIMIT 1) r ON true";
+	Object[] binds = cursor == null ? new Object[0] : new Object[] { cursor };
+	return store.query(sql, row -> { install(row, cursor); return true; }, binds).then();
+    }
+
+    // Installs the row of a notification on this instance's table.
+    void accept(NotificationPayload payload) {
+	advanceLatest(payload.time());
+	for (PersistentSignal ps : map.keySet()) {
+	    if (ps instanceof TimescaleSignal) ((TimescaleSignal)ps).recent(payload.time(), payload);
+	}
+    }
+
+    // the latest row time of an upstream, from its notifications if
+    // they carried one
+    private Timestamp latestOf(SignalClassInstance inst) {
+	Timestamp ts = latestSeen.get(inst);
+	return ts != null ? ts : inst.latestTimestamp();
+    }
+
+    private void install(io.r2dbc.spi.Row row, Timestamp cursor) {
+	Timestamp latest = ReactiveStore.timestamp(row, "__latest");
+	Timestamp time = ReactiveStore.timestamp(row, "time");
+	long from = time == null ? Long.MIN_VALUE : HistoryCache.micros(time);
+	long to = cursor == null ? Long.MIN_VALUE : HistoryCache.micros(cursor);
+	for (PersistentSignal ps : map.keySet()) {
+	    if (!(ps instanceof TimescaleSignal)) continue;
+	    HistoryCache<Object> h = new HistoryCache<Object>(from, to, latest);
+	    if (time != null) h.add(from, row.get(ps.name().toLowerCase(), Object.class));
+	    ((TimescaleSignal)ps).preload(h);
+	}
+    }
+
+    // Preloads the rows read by time cursors in (from, to] with one
+    // ordered scan, starting from the last row before from.
+    void preloadRange(Timestamp from, Timestamp to) {
+	if (series != null) return;
+	String table = dbName.toLowerCase();
+	StreamingConnection sc = streaming();
+	Connection c = null;
+	try {
+	    c = sc.acquire();
+	    PreparedStatement stmt = c.prepareStatement("SELECT * FROM " + table +
+							" WHERE time >= (SELECT coalesce(max(time), '-infinity') FROM " + table + " WHERE time < ?)" +
+							" AND time < ? ORDER BY time");
+	    stmt.setFetchSize(1000);
+	    stmt.setTimestamp(1, from);
+	    stmt.setTimestamp(2, to);
+	    ResultSet rs = stmt.executeQuery();
+	    long lower = HistoryCache.micros(from);
+	    Vector<TimescaleSignal> signals = new Vector<TimescaleSignal>();
+	    Vector<HistoryCache<Object>> caches = new Vector<HistoryCache<Object>>();
+	    Vector<Integer> columns = new Vector<Integer>();
+	    boolean first = true;
+	    while (rs.next()) {
+		long t = HistoryCache.micros(rs.getTimestamp("time"));
+		if (first) {
+		    // the range starts at the seed row, if there is one
+		    long seed = t < lower ? t : Long.MIN_VALUE;
+		    // views read their own relations
+		    for (PersistentSignal ps : map.keySet()) {
+			if (!(ps instanceof TimescaleSignal) || ps instanceof TimescaleViewSignal) continue;
+			signals.add((TimescaleSignal)ps);
+			caches.add(new HistoryCache<Object>(seed, HistoryCache.micros(to), null));
+			columns.add(rs.findColumn(ps.name().toLowerCase()));
+		    }
+		    first = false;
+		}
+		for (int i = 0; i < signals.size(); i++) {
+		    ValueCodec codec = signals.elementAt(i).codec();
+		    if (codec == null) codec = ValueCodecs.OBJECT;
+		    caches.elementAt(i).add(t, codec.decode(rs, columns.elementAt(i)));
+		}
+	    }
+	    rs.close();
+	    stmt.close();
+	    if (first) {
+		// no rows: every read in the range finds nothing
+		for (PersistentSignal ps : map.keySet()) {
+		    if (ps instanceof TimescaleSignal && !(ps instanceof TimescaleViewSignal)) {
+			((TimescaleSignal)ps).preload(new HistoryCache<Object>(Long.MIN_VALUE, HistoryCache.micros(to), null));
+		    }
+		}
+	    }
+	    for (int i = 0; i < signals.size(); i++) signals.elementAt(i).preload(caches.elementAt(i));
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	    clearPreload();
+	} finally {
+	    if (c != null) sc.release();
+	}
+    }
+
+    private synchronized StreamingConnection streaming() {
+	if (streaming == null) streaming = new StreamingConnection(DirectoryClient.resolve(dbName));
+	return streaming;
+    }
+
+    void clearPreload() {
+	for (PersistentSignal ps : map.keySet()) {
+	    if (ps instanceof TimescaleSignal) ((TimescaleSignal)ps).preload(null);
+	}
+    }
+
+    private void revalNow(SignalClassInstance exInst) {
 	//	System.out.println("Synchronizer.reval()");
 	//	System.out.println(getSignalClassInst().getID() + " Synchronizer.reval(): union: " + union + " bufferless: " + bufferless);
 	if (union) {
-	    Timestamp ts = exInst.latestTimestamp();
+	    Timestamp ts = latestOf(exInst);
 	    if (bufferless) {
 		bufferlessMap.replace(exInst, true);
 		/*
@@ -280,8 +670,9 @@ public class Synchronizer {
 		}
 		*/
 		for (SignalClassInstance inst : bufferlessMap.keySet()) {
-		    if (inst.latestTimestamp().after(ts)) {
-			ts = inst.latestTimestamp();
+		    Timestamp latest = latestOf(inst);
+		    if (latest.after(ts)) {
+			ts = latest;
 		    }
 		}
 		thisSignalClassInstance.snapshot(ts);
@@ -292,14 +683,14 @@ public class Synchronizer {
 		}
 		bufferlessMap.replaceAll((k,v)-> false);
 	    } else {
-		bufferedMap.get(exInst.getID()).offer(exInst.latestTimestamp());
-		for (Queue<Timestamp> q: bufferedMap.values()) {
+		offer(exInst, ts);
+		for (TimestampRing q: bufferedMap.values()) {
 		    if (q.peek() == null) {
 			//			System.out.println("waiting...");
 			return;
 		    }
 		}
-		for (Map.Entry<String, Queue<Timestamp>> entry: bufferedMap.entrySet()) {
+		for (Map.Entry<String, TimestampRing> entry: bufferedMap.entrySet()) {
 		    Timestamp instTs = entry.getValue().poll();
 		    for (SignalClassInstance sci: externList) {
 			if (sci.getID().equals(entry.getKey())) {
@@ -313,6 +704,9 @@ public class Synchronizer {
 		for (PersistentSignal ps : map.keySet()) {
 		    ps.pushSignalClassInst();
 		}
+		// released only now, and outside the monitor, since the
+		// propagations held back re-enter this method
+		releaseUpstreams(false);
 	    }
 	} else {
 	    for (SignalClassInstance sci : externList) {
@@ -324,25 +718,132 @@ public class Synchronizer {
 	}
     }
 
-    public void delay(PersistentSignal ps, String value) {
+    // Queues a timestamp of an upstream under the overflow policy of
+    // @buffered.  With "block", the upstream is held as soon as its
+    // buffer is full, before a further tuple could overflow it, and
+    // released when a tuple has been taken from it; tuples already on
+    // their way are spilled, never dropped, and the held upstream queues
+    // a bounded number of propagations before catching up from its rows
+    // (see PropagationGate).  Only "dropOldest" drops.
+    private void offer(SignalClassInstance exInst, Timestamp ts) {
+	TimestampRing q = bufferedMap.get(exInst.getID());
+	String prefix = dbName + "." + exInst.getID();
+	if (overflow.equals("dropOldest") && q.isFull()) {
+	    q.poll();
+	    Metrics.record(prefix + ".dropped", 1);
+	}
+	q.offer(ts);
+	if (overflow.equals("block") && q.isFull() && held.add(exInst)) {
+	    exInst.getSynchronizer().hold(this);
+	}
+	Metrics.record(prefix + ".occupancy", q.size());
+	if (q.spilled() > 0) Metrics.record(prefix + ".spilled", q.spilled());
+    }
+
+    // Called with the monitor held: the upstreams whose buffers have
+    // room are released by releaseQueued() once it is left.
+    private void releaseUpstreams(boolean all) {
+	if (held.isEmpty()) return;
+	Vector<SignalClassInstance> released = new Vector<SignalClassInstance>();
+	for (SignalClassInstance sci : held) {
+	    TimestampRing q = bufferedMap.get(sci.getID());
+	    if (all || q == null || !q.isFull()) released.add(sci);
+	}
+	held.removeAll(released);
+	releasable.addAll(released);
+    }
+
+    // Releasing an upstream runs the propagations it held back, which
+    // enter this instance again, so it is done without its monitor.
+    private void releaseQueued() {
+	if (Thread.holdsLock(this)) return;
+	Vector<SignalClassInstance> released;
+	synchronized (this) {
+	    if (releasable.isEmpty()) return;
+	    released = new Vector<SignalClassInstance>(releasable);
+	    releasable.clear();
+	}
+	for (SignalClassInstance sci : released) sci.getSynchronizer().release(this);
+    }
+
+    // Runs r in order with the propagations of this instance, held back
+    // while it is blocked, e.g. by an upstream switch downstream.
+    void submit(Runnable r) {
+	for (PersistentSignal ps : map.keySet()) {
+	    if (ps instanceof TimescaleSignal) {
+		((TimescaleSignal)ps).submit(r);
+		return;
+	    }
+	    if (ps instanceof StoredSignal) {
+		((StoredSignal)ps).submit(r);
+		return;
+	    }
+	}
+	r.run();
+    }
+
+    // holds back (or lets go) the propagations of this instance
+    void hold(Object owner) {
+	for (PersistentSignal ps : map.keySet()) {
+	    if (ps instanceof TimescaleSignal) ((TimescaleSignal)ps).hold(owner);
+	    if (ps instanceof StoredSignal) ((StoredSignal)ps).hold(owner);
+	}
+    }
+
+    void release(Object owner) {
+	for (PersistentSignal ps : map.keySet()) {
+	    if (ps instanceof TimescaleSignal) ((TimescaleSignal)ps).release(owner);
+	    if (ps instanceof StoredSignal) ((StoredSignal)ps).release(owner);
+	}
+    }
+
+    // timestamps queued per upstream ID in @buffered mode
+    public synchronized Map<String, Long> bufferOccupancy() {
+	TreeMap<String, Long> retval = new TreeMap<String, Long>();
+	for (Map.Entry<String, TimestampRing> e : bufferedMap.entrySet()) {
+	    retval.put(e.getKey(), e.getValue().size());
+	}
+	return retval;
+    }
+
+    void close() {
+	synchronized (this) {
+	    DependencyGraph.remove(this);
+	    if (checkpointTask != null) {
+		checkpointTask.cancel(false);
+		checkpointTask = null;
+	    }
+	    releaseUpstreams(true);
+	    for (TimestampRing q : bufferedMap.values()) q.close();
+	    flushSketches();
+	    if (streaming != null) streaming.close();
+	}
+	releaseQueued();
+    }
+
+    public void delay(PersistentSignal ps, Object value) {
 	if (map.get(ps) != null) return;
 
 	map.put(ps, value);
+	for (Rolling r : rollings) {
+	    if (r.source() == ps) r.signal().set(r.next(rowTime(), value));
+	}
 	if (--delay == 0) {
-	    StringBuffer stmt = new StringBuffer();
-	    stmt.append("INSERT INTO " + dbName + "(time, ");
-	    StringJoiner columns = new StringJoiner(",");
-	    StringJoiner values = new StringJoiner(",");
+	    // rows remembered from notifications are stale until the
+	    // notification of this insert arrives
 	    for (PersistentSignal key : map.keySet()) {
-		columns.add(key.name());
-		values.add(map.get(key));
-	    }
-	    stmt.append(columns.toString());
-	    String ts = timeCursor == null ? "NOW()" : "'" + timeCursor + "'";
-	    stmt.append(") VALUES (" + ts + ", ");
-	    stmt.append(values.toString());
-	    stmt.append(")");
-	    exec(stmt.toString());
+		if (key instanceof TimescaleSignal) ((TimescaleSignal)key).recent(null, null);
+	    }
+	    Timestamp time = rowTime();
+	    rowTime = null;
+	    advanceLatest(time);
+	    for (SketchSignalTimescale s : sketches) s.seed();
+	    insert(time);
+	    for (SketchSignalTimescale s : sketches) {
+		for (Map.Entry<PersistentSignal, Object> e : map.entrySet()) {
+		    if (e.getKey().name().equals(s.column())) s.pend(e.getValue(), time);
+		}
+	    }
 	    for (PersistentSignal key : map.keySet()) {
 		key.effect();
 		map.put(key,null);
@@ -351,15 +852,116 @@ public class Synchronizer {
 	}
     }
 
-    private void exec(String query) {
-	PreparedStatement stmt;
+    // The time of the row being filled: the time cursor, or else the
+    // time of the first column set, after that of the previous row.
+    // Rolling statistics and the insert both take it, so that they
+    // agree on the time of the row.
+    private Timestamp rowTime() {
+	if (timeCursor != null) return timeCursor;
+	if (rowTime == null) {
+	    long t = HistoryCache.micros(Timestamp.from(java.time.Instant.now()));
+	    if (t <= lastRowTime) t = lastRowTime + 1;
+	    lastRowTime = t;
+	    rowTime = HistoryCache.timestamp(t);
+	}
+	return rowTime;
+    }
+
+    // The insert statement is prepared once per connection and its
+    // values are bound with the codec of each column.
+    private void insert(Timestamp time) {
+	if (series != null) {
+	    String[] columns = new String[map.size()];
+	    Object[] values = new Object[map.size()];
+	    int i = 0;
+	    for (Map.Entry<PersistentSignal, Object> e : map.entrySet()) {
+		columns[i] = e.getKey().name();
+		values[i++] = e.getValue();
+	    }
+	    series.append(time, columns, values);
+	    return;
+	}
+	if (store != null) {
+	    insertAsync(time);
+	    return;
+	}
 	try {
-	    stmt = conn.prepareStatement(query);
-	    stmt.executeUpdate();
-	    stmt.close();
+	    if (insertStmt == null) {
+		insertColumns = new Vector<PersistentSignal>(map.keySet());
+		StringJoiner columns = new StringJoiner(",");
+		StringJoiner values = new StringJoiner(",");
+		for (PersistentSignal key : insertColumns) {
+		    columns.add(key.name());
+		    values.add("?");
+		}
+		insertStmt = conn.prepareStatement("INSERT INTO " + dbName + "(time, " + columns.toString() +
+						   ") VALUES (?, " + values.toString() + ")");
+		try {
+		    insertStmt.unwrap(org.postgresql.PGStatement.class).setPrepareThreshold(1);
+		} catch (SQLException e) { }
+	    }
+	    insertStmt.setTimestamp(1, time);
+	    int i = 2;
+	    for (PersistentSignal key : insertColumns) {
+		ValueCodec codec = key.codec();
+		if (codec == null) codec = ValueCodecs.OBJECT;
+		codec.encode(insertStmt, i++, map.get(key));
+	    }
+	    if (batched >= 0) {
+		insertStmt.addBatch();
+		batched++;
+	    } else {
+		insertStmt.executeUpdate();
+	    }
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	    closeInsert();
+	}
+    }
+
+    private void insertAsync(Timestamp time) {
+	StringJoiner columns = new StringJoiner(",");
+	StringJoiner values = new StringJoiner(",");
+	Vector<Object> binds = new Vector<Object>();
+	binds.add(time);
+	for (PersistentSignal key : map.keySet()) {
+	    Object v = map.get(key);
+	    columns.add(key.name());
+	    if (v == null) {
+		values.add("NULL");
+	    } else {
+		binds.add(v);
+		values.add("$" + binds.size());
+	    }
+	}
+	store.update("INSERT INTO " + dbName + "(time, " + columns.toString() + ") VALUES ($1, " + values.toString() + ")", binds.toArray())
+	    .subscribe(n -> { }, e -> e.printStackTrace());
+    }
+
+    // While batching, inserts are collected and sent by endBatch().
+    // Batching applies to the JDBC path to TimescaleDB only.
+    void beginBatch() {
+	if (store == null && series == null) batched = 0;
+    }
+
+    int endBatch() {
+	int n = batched;
+	batched = -1;
+	if (n <= 0 || insertStmt == null) return 0;
+	try {
+	    insertStmt.executeBatch();
 	} catch (SQLException e) {
 	    e.printStackTrace();
+	    closeInsert();
 	}
+	return n;
+    }
+
+    private void closeInsert() {
+	try {
+	    if (insertStmt != null) insertStmt.close();
+	} catch (SQLException e) { }
+	insertStmt = null;
     }
 
     public boolean getUnion() { return union; }
@@ -372,8 +974,14 @@ public class Synchronizer {
     }
 
     public void updateSourceSync(Synchronizer oldSync, Synchronizer newSync) {
+	synchronized (this) {
+	    // the watermark of the old upstream
+	    latestSeen.remove(oldSync.getSignalClassInst());
+	}
 	externList.remove(oldSync.getSignalClassInst());
 	externList.add(newSync.getSignalClassInst());
+	DependencyGraph.unlink(oldSync, this);
+	DependencyGraph.link(newSync, this);
     }
 
     public SignalClassInstance getSignalClassInst() {
@@ -393,36 +1001,19 @@ public class Synchronizer {
 	}
     }
 
+    // The latest timestamps of the instances connected to this one,
+    // taken from the dependency index and the cached timestamps.
     public List<Timestamp> queryImprocessingTimestamps(List<Timestamp> lst, Set<Synchronizer> visited) {
-	long nanoT = System.nanoTime();
-	Timestamp t = getImprocessingTimestamp();
-
-	if (visited.contains(this)) {
-	    return lst;
-	}
-	if (t != null && !lst.contains(t) && !isBlocked()) lst.add(t);
-	visited.add(this);
-	
-	for (SignalClassInstance sci: externList) {
-	    sci.getSynchronizer().queryImprocessingTimestamps(lst, visited);
-	}
-
-	for (PersistentSignal ps : map.keySet()) {
-	    for (Object s : ps.getDownstreams()) {
-		((Synchronizer)s).queryImprocessingTimestamps(lst, visited);
-	    }
-	    break;
+	for (Synchronizer s : DependencyGraph.componentOf(this)) {
+	    if (!visited.add(s)) continue;
+	    Timestamp t = s.getImprocessingTimestamp();
+	    if (t != null && !lst.contains(t) && !s.isBlocked()) lst.add(t);
 	}
-	
 	return lst;
     }
 
     private Timestamp getImprocessingTimestamp() {
-	for (PersistentSignal ps : map.keySet()) {
-	    Timestamp t = ps.getImprocessingTimestamp();
-	    if (t != null) return t;
-	}
-	return null;
+	return latestTimestamp();
     }
 
     private boolean isBlocked() {
@@ -433,24 +1024,9 @@ public class Synchronizer {
     }
 
     public List<Synchronizer> queryMostDownstreams(List<Synchronizer> lst, Set<Synchronizer> visited) {
-	if(visited.contains(this)) {
-	    return lst;
-	}
-	visited.add(this);
-	for (PersistentSignal ps : map.keySet()) {
-	    Vector<Synchronizer> down = ps.getDownstreams();
-	    if (down.isEmpty()) {
-		lst.add(this);
-	    }
-	    for (Synchronizer s : down) {
-		s.queryMostDownstreams(lst, visited);
-	    }
-	    break;
+	for (Synchronizer s : DependencyGraph.mostDownstreams(this)) {
+	    if (visited.add(s)) lst.add(s);
 	}
-	for (SignalClassInstance sci : externList) {
-	    sci.getSynchronizer().queryMostDownstreams(lst, visited);
-	}
-	
 	return lst;
     }
 
@@ -470,8 +1046,17 @@ public class Synchronizer {
 	return waitListMap.keySet();
     }
 
+    // Cached until the next insert, or advanced by the notifications
+    // of this instance's table.
     public Timestamp latestTimestamp() {
-	return thisSignalClassInstance.latestTimestamp();
+	Timestamp t = latest;
+	if (t == null) latest = t = thisSignalClassInstance.latestTimestamp();
+	return t;
+    }
+
+    private void advanceLatest(Timestamp t) {
+	Timestamp l = latest;
+	if (l != null && t != null && t.after(l)) latest = t;
     }
 
     public List<Synchronizer> listeners() {
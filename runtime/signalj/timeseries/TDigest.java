@@ -0,0 +1,181 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Approximate quantiles of numeric values: a merging t-digest
+// (Dunning and Ertl).  Values are buffered and merged into centroids
+// whose sizes are bounded by the arcsine scale function, so that the
+// tails are kept more precisely than the median.  A digest keeps
+// about compression centroids, whatever the number of values.
+public class TDigest implements Sketch {
+
+    private static final double COMPRESSION = 100;
+
+    private double compression;
+    private double[] means = new double[0], weights = new double[0];
+    private double total = 0, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+    private double[] bufferMeans, bufferWeights;
+    private int buffered = 0;
+
+    public TDigest() {
+	this(COMPRESSION);
+    }
+
+    public TDigest(double compression) {
+	this.compression = compression;
+	bufferMeans = new double[(int)(5 * compression)];
+	bufferWeights = new double[bufferMeans.length];
+    }
+
+    public void add(Object value) {
+	if (value instanceof Number) add(((Number)value).doubleValue(), 1);
+    }
+
+    public void add(double x, double w) {
+	if (Double.isNaN(x)) return;
+	if (buffered == bufferMeans.length) compress();
+	bufferMeans[buffered] = x;
+	bufferWeights[buffered++] = w;
+	total += w;
+	if (x < min) min = x;
+	if (x > max) max = x;
+    }
+
+    public void merge(Sketch other) {
+	TDigest d = (TDigest)other;
+	d.compress();
+	for (int i = 0; i < d.means.length; i++) add(d.means[i], d.weights[i]);
+	if (d.min < min) min = d.min;
+	if (d.max > max) max = d.max;
+    }
+
+    public long count() {
+	return (long)total;
+    }
+
+    // The value below which a fraction q of the values lie, or null
+    // without values.  Between the centers of two centroids it is
+    // interpolated linearly; beyond the outer ones, to min and max.
+    public Double quantile(double q) {
+	if (q < 0 || q > 1) throw new IllegalArgumentException("quantile out of [0, 1]: " + q);
+	compress();
+	int n = means.length;
+	if (n == 0) return null;
+	if (n == 1) return means[0];
+	double index = q * total;
+	if (index <= weights[0] / 2) {
+	    return min + (means[0] - min) * index / (weights[0] / 2);
+	}
+	double center = weights[0] / 2;
+	for (int i = 0; i < n - 1; i++) {
+	    double next = center + (weights[i] + weights[i + 1]) / 2;
+	    if (index <= next) {
+		return means[i] + (means[i + 1] - means[i]) * (index - center) / (next - center);
+	    }
+	    center = next;
+	}
+	return means[n - 1] + (max - means[n - 1]) * (index - center) / (total - center);
+    }
+
+    // merges the buffer into the centroids
+    private void compress() {
+	if (buffered == 0) return;
+	int n = means.length + buffered;
+	double[] m = Arrays.copyOf(means, n), w = Arrays.copyOf(weights, n);
+	System.arraycopy(bufferMeans, 0, m, means.length, buffered);
+	System.arraycopy(bufferWeights, 0, w, means.length, buffered);
+	buffered = 0;
+	Integer[] order = new Integer[n];
+	for (int i = 0; i < n; i++) order[i] = i;
+	Arrays.sort(order, (a, b) -> Double.compare(m[a], m[b]));
+	double[] outMeans = new double[n], outWeights = new double[n];
+	int out = 0;
+	double mean = m[order[0]], weight = w[order[0]], before = 0;
+	double limit = total * qLimit(0);
+	for (int i = 1; i < n; i++) {
+	    double x = m[order[i]], xw = w[order[i]];
+	    if (before + weight + xw <= limit) {
+		weight += xw;
+		mean += (x - mean) * xw / weight;
+	    } else {
+		outMeans[out] = mean;
+		outWeights[out++] = weight;
+		before += weight;
+		limit = total * qLimit(before / total);
+		mean = x;
+		weight = xw;
+	    }
+	}
+	outMeans[out] = mean;
+	outWeights[out++] = weight;
+	means = Arrays.copyOf(outMeans, out);
+	weights = Arrays.copyOf(outWeights, out);
+    }
+
+    // the largest quantile a centroid starting at q may reach: one
+    // unit further on the scale k(q) = compression / 2pi * asin(2q - 1)
+    private double qLimit(double q) {
+	double k = compression / (2 * Math.PI) * Math.asin(2 * q - 1) + 1;
+	if (k >= compression / 4) return 1;
+	return (Math.sin(k * 2 * Math.PI / compression) + 1) / 2;
+    }
+
+    public Sketch copy() {
+	return fromBytes(toBytes());
+    }
+
+    public byte[] toBytes() {
+	compress();
+	ByteBuffer b = ByteBuffer.allocate(8 * 4 + 4 + 16 * means.length);
+	b.putDouble(compression).putDouble(total).putDouble(min).putDouble(max).putInt(means.length);
+	for (int i = 0; i < means.length; i++) b.putDouble(means[i]).putDouble(weights[i]);
+	return b.array();
+    }
+
+    static TDigest fromBytes(byte[] bytes) {
+	ByteBuffer b = ByteBuffer.wrap(bytes);
+	TDigest d = new TDigest(b.getDouble());
+	d.total = b.getDouble();
+	d.min = b.getDouble();
+	d.max = b.getDouble();
+	int n = b.getInt();
+	d.means = new double[n];
+	d.weights = new double[n];
+	for (int i = 0; i < n; i++) {
+	    d.means[i] = b.getDouble();
+	    d.weights[i] = b.getDouble();
+	}
+	return d;
+    }
+}
@@ -0,0 +1,311 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.*;
+import java.util.StringJoiner;
+import java.util.Arrays;
+import java.util.HashMap;
+
+// The default backend: one hypertable per instance in TimescaleDB,
+// registered in persistent_instances and located by DirectoryClient.
+// The instances of a @sharedTable class share one hypertable.
+public class TimescaleBackend implements StorageBackend {
+
+    // the shared table and the instance_id of instances created here
+    private HashMap<String, String[]> shared = new HashMap<String, String[]>();
+
+    public void create(String name, String[] contents) throws DoubleInstanceException {
+	create(name, contents, StoragePolicy.NONE);
+    }
+
+    public void create(String name, String[] contents, StoragePolicy policy) throws DoubleInstanceException {
+	if (policy.sharedTable != null) {
+	    if (!name.toLowerCase().startsWith(policy.sharedTable + "_")) {
+		throw new IllegalArgumentException("@sharedTable " + policy.sharedTable + " cannot hold the instance " + name);
+	    }
+	    createShared(name, contents, policy);
+	    return;
+	}
+	try {
+	    Class.forName("org.postgresql.Driver");
+	    DBEndpoint endpoint = DirectoryClient.resolve(name);
+	    Connection conn = endpoint.connect();
+	    Timeseries.installNotifyTrigger(endpoint.url, conn);
+	    if (!Timeseries.checkDB(name,conn)) {
+		conn.setAutoCommit(false);
+		PreparedStatement createTable, hyperTable, insertInstance;
+		StringJoiner sj = new StringJoiner(",");
+		Arrays.stream(contents).forEach(i -> sj.add(String.valueOf(i)));
+		createTable = conn.prepareStatement("CREATE TABLE " + name +
+						    " (id SERIAL, time TIMESTAMPTZ NOT NULL, " + sj.toString() + ")");
+		hyperTable = conn.prepareStatement("SELECT create_hypertable('" + name + "', 'time'" +
+						   (policy.chunkInterval == null ? "" : ", chunk_time_interval => INTERVAL '" + policy.chunkInterval + "'") + ")");
+		insertInstance = conn.prepareStatement("INSERT into persistent_instances VALUES ('" + name.toLowerCase() + "', 'true')");
+		createTable.executeUpdate();
+		hyperTable.executeQuery();
+		insertInstance.executeUpdate();
+		createTable.close();
+		hyperTable.close();
+		insertInstance.close();
+		Timeseries.installCheckpointTrigger(name, conn);
+		Timeseries.installInsertTrigger(name, conn);
+		conn.commit();
+	    } else {
+		activate(name, conn);
+		// tables created before the trigger was installed here
+		if (!Timeseries.hasCheckpointTrigger(name, conn)) Timeseries.installCheckpointTrigger(name, conn);
+		Timeseries.installInsertTrigger(name, conn);
+		if (policy.chunkInterval != null) {
+		    execute(conn, "SELECT set_chunk_time_interval('" + name + "', INTERVAL '" + policy.chunkInterval + "')");
+		}
+	    }
+	    applyPolicy(name, name, null, contents, policy, conn);
+	    conn.close();
+	} catch (Exception e) {
+	    e.printStackTrace();
+	}
+    }
+
+    private static void activate(String name, Connection conn) throws SQLException {
+	PreparedStatement update, hasCreated = conn.prepareStatement("SELECT active FROM persistent_instances WHERE relname = '" + name.toLowerCase() + "'");
+	ResultSet rs = hasCreated.executeQuery();
+	if (rs.next()) {
+	    if (rs.getBoolean(1)) {
+		//			throw new DoubleInstanceException("duplicated persistent signal instance: " + name);
+	    } else {
+		update = conn.prepareStatement("UPDATE persistent_instances SET active = 'true' WHERE relname = '" + name.toLowerCase() + "'");
+		update.executeUpdate();
+		update.close();
+	    }
+	}
+	hasCreated.close();
+    }
+
+    // @sharedTable: the rows of all instances of the class are kept in
+    // one hypertable, space-partitioned by instance_id, so that many
+    // instances do not each add a hypertable and its chunks to the
+    // catalog.  The relation of an instance is a view of its rows,
+    // through which rows are inserted (instance_id defaults to the
+    // instance) and deleted, so that signals and views use it as a
+    // table of their own.  Inserts notify the channel of the instance,
+    // and checkpoints stay in persistent_instances, where one trigger
+    // for the table notifies the instance whose checkpoint advanced.
+    private void createShared(String name, String[] contents, StoragePolicy policy) {
+	String table = policy.sharedTable;
+	String instance = name.substring(table.length() + 1);
+	try {
+	    Class.forName("org.postgresql.Driver");
+	    DBEndpoint endpoint = DirectoryClient.resolve(name);
+	    Connection conn = endpoint.connect();
+	    Timeseries.installNotifyTrigger(endpoint.url, conn);
+	    conn.setAutoCommit(false);
+	    StringBuilder columns = new StringBuilder();
+	    for (String c : contents) columns.append(", ").append(c);
+	    execute(conn, "CREATE TABLE IF NOT EXISTS " + table + " (id SERIAL, time TIMESTAMPTZ NOT NULL, instance_id TEXT NOT NULL" + columns + ")");
+	    execute(conn, "SELECT create_hypertable('" + table + "', 'time', partitioning_column => 'instance_id', number_partitions => " + policy.partitions +
+		    ", if_not_exists => true)");
+	    if (policy.chunkInterval != null) {
+		execute(conn, "SELECT set_chunk_time_interval('" + table + "', INTERVAL '" + policy.chunkInterval + "')");
+	    }
+	    // columns added to the class since the table was created
+	    for (String c : contents) execute(conn, "ALTER TABLE " + table + " ADD COLUMN IF NOT EXISTS " + c);
+	    execute(conn, "DO $$BEGIN CREATE TRIGGER " + table + "_notifyTr AFTER INSERT ON " + table +
+		    " FOR EACH ROW EXECUTE PROCEDURE signalj_notify_instance_trigger('" + table + "'); EXCEPTION WHEN duplicate_object THEN null; END;$$");
+	    view(name, table, instance, conn);
+	    if (!Timeseries.checkDB(name, conn)) {
+		execute(conn, "INSERT into persistent_instances VALUES ('" + name.toLowerCase() + "', 'true')");
+	    } else {
+		activate(name, conn);
+	    }
+	    Timeseries.installSharedCheckpointTrigger(table, conn);
+	    // instances created with a trigger of their own
+	    if (Timeseries.hasCheckpointTrigger(name, conn)) execute(conn, "DROP TRIGGER " + name.toLowerCase() + "_checkpointTr ON persistent_instances");
+	    conn.commit();
+	    synchronized (shared) {
+		shared.put(name.toLowerCase(), new String[] { table, instance });
+	    }
+	    applyPolicy(name, table, instance, contents, policy, conn);
+	    conn.close();
+	} catch (Exception e) {
+	    e.printStackTrace();
+	}
+    }
+
+    // the view of an instance, defined again when the table has new
+    // columns
+    private static void view(String name, String table, String instance, Connection conn) {
+	String id = "'" + instance.replace("'", "''") + "'";
+	execute(conn, "CREATE OR REPLACE VIEW " + name + " AS SELECT * FROM " + table + " WHERE instance_id = " + id + " WITH CASCADED CHECK OPTION");
+	execute(conn, "ALTER VIEW " + name + " ALTER COLUMN instance_id SET DEFAULT " + id);
+    }
+
+    // a column of a shared table is added for all its instances
+    public void addColumn(String name, String column) {
+	String[] s;
+	synchronized (shared) {
+	    s = shared.get(name.toLowerCase());
+	}
+	if (s == null) {
+	    StorageBackend.super.addColumn(name, column);
+	    return;
+	}
+	try {
+	    Connection conn = DirectoryClient.resolve(name).connect();
+	    execute(conn, "ALTER TABLE " + s[0] + " ADD COLUMN IF NOT EXISTS " + column);
+	    view(name, s[0], s[1], conn);
+	    conn.close();
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	}
+    }
+
+    // Each step is idempotent, so that the policy of an existing
+    // instance follows the annotations of its class.  Continuous
+    // aggregates cannot be created in a transaction.  The policy applies
+    // to table, which with an instance is shared: its chunks are then
+    // compressed by instance and its rollup kept by instance, and the
+    // history of the instance reads its part of the rollup.
+    private void applyPolicy(String name, String table, String instance, String[] contents, StoragePolicy policy, Connection conn) throws SQLException {
+	String rel = table.toLowerCase(), view = name.toLowerCase();
+	String byInstance = instance == null ? "" : "instance_id = '" + instance.replace("'", "''") + "' AND ";
+	conn.setAutoCommit(true);
+	if (policy.compressAfter != null) {
+	    if (!compressed(rel, conn)) {
+		execute(conn, "ALTER TABLE " + rel + " SET (timescaledb.compress, timescaledb.compress_orderby = 'time DESC'" +
+			(instance == null ? "" : ", timescaledb.compress_segmentby = 'instance_id'") + ")");
+	    }
+	    execute(conn, "SELECT add_compression_policy('" + rel + "', INTERVAL '" + policy.compressAfter + "', if_not_exists => true)");
+	}
+	if (policy.downsample != null) {
+	    // the rollup keeps one row per bucket: the average of numeric
+	    // columns, cast back to their types, and the last value of the
+	    // others
+	    String width = "INTERVAL '" + policy.downsample + "'";
+	    StringJoiner aggs = new StringJoiner(", ");
+	    StringJoiner cols = new StringJoiner(", ");
+	    for (String c : contents) {
+		String[] nt = c.trim().split("\\s+", 2);
+		String type = nt.length > 1 ? nt[1] : "TEXT";
+		boolean numeric = type.matches("(?i)SMALLINT|INTEGER|INT|BIGINT|REAL|DOUBLE PRECISION|NUMERIC.*");
+		aggs.add((numeric ? "avg(" + nt[0] + ")::" + type : "last(" + nt[0] + ", time)") + " AS " + nt[0]);
+		cols.add(nt[0]);
+	    }
+	    execute(conn, "CREATE MATERIALIZED VIEW IF NOT EXISTS " + rel + "__rollup WITH (timescaledb.continuous) AS " +
+		    "SELECT time_bucket(" + width + ", time) AS time, " + (instance == null ? "" : "instance_id, ") + aggs + " FROM " + rel +
+		    (instance == null ? " GROUP BY 1" : " GROUP BY 1, 2") + " WITH NO DATA");
+	    // buckets whose rows have been dropped by the retention policy
+	    // are not refreshed, which would empty them
+	    String start = policy.retention == null ? "NULL" : "INTERVAL '" + policy.retention + "'";
+	    execute(conn, "SELECT add_continuous_aggregate_policy('" + rel + "__rollup', start_offset => " + start + ", end_offset => " + width +
+		    ", schedule_interval => " + width + ", if_not_exists => true)");
+	    // buckets that end before the oldest row still kept
+	    execute(conn, "CREATE OR REPLACE VIEW " + view + "__history AS " +
+		    "SELECT NULL::integer AS id, time, " + cols + " FROM " + rel + "__rollup " +
+		    "WHERE " + byInstance + "time + " + width + " <= (SELECT coalesce(min(time), 'infinity') FROM " + view + ") " +
+		    "UNION ALL SELECT id, time, " + cols + " FROM " + view);
+	}
+	if (policy.retention != null) {
+	    execute(conn, "SELECT add_retention_policy('" + rel + "', INTERVAL '" + policy.retention + "', if_not_exists => true)");
+	}
+    }
+
+    private static boolean compressed(String rel, Connection conn) throws SQLException {
+	PreparedStatement stmt = conn.prepareStatement("SELECT compression_enabled FROM timescaledb_information.hypertables WHERE hypertable_name = ?");
+	stmt.setString(1, rel);
+	ResultSet rs = stmt.executeQuery();
+	boolean retval = rs.next() && rs.getBoolean(1);
+	rs.close();
+	stmt.close();
+	return retval;
+    }
+
+    private static void execute(Connection conn, String sql) {
+	try {
+	    Statement stmt = conn.createStatement();
+	    stmt.execute(sql);
+	    stmt.close();
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	}
+    }
+
+    public void reset() {
+	try {
+	    Class.forName("org.postgresql.Driver");
+	    for (DBEndpoint endpoint : DirectoryClient.endpoints()) {
+		Connection conn = endpoint.connect();
+		PreparedStatement stmt = conn.prepareStatement("UPDATE persistent_instances SET active = 'false'");
+		stmt.executeUpdate();
+		stmt.close();
+		conn.close();
+	    }
+	} catch(Exception e) {
+	    e.printStackTrace();
+	}
+    }
+
+    public SeriesStore series(String name) {
+	return new TimescaleSeries(name);
+    }
+
+    public <T> PersistentSignal<T> newPersistent(String baseName, String name, Synchronizer sync) {
+	return new TimescaleSignal<T>(baseName, name, sync);
+    }
+
+    public <T> PersistentSignal<T> newWithin(Timestamp ts, String interval, String baseName, String name, String fromName, String columnName) {
+	return new WithinSignalTimescale<T>(ts,interval,baseName,name,fromName,columnName);
+    }
+
+    public <T> PersistentSignal<T> newLastDiff(int offset, String baseName, String name, String fromName, String columnName) {
+	return new LastDiffSignalTimescale<T>(offset,baseName,name,fromName,columnName);
+    }
+
+    public PersistentSignal<Double> newDistance(PersistentSignal p, String baseName, String name, String fromName, String columnName) {
+	return new DistanceSignalTimescale(p, baseName, name, fromName, columnName);
+    }
+
+    public <T> PersistentSignal<T> newAnalytic(String opName, String baseName, String name, String fromName, String columnName) {
+	return new AnalyticSignalTimescale<T>(opName, baseName, name, fromName, columnName);
+    }
+
+    public <T> PersistentSignal<T> newFirst(String baseName, String name, String fromName, String columnName) {
+	return new FirstSignalTimescale<T>(baseName, name, fromName, columnName);
+    }
+
+    public <T> PersistentSignal<T> newSketch(String kind, double q, String baseName, String name, String fromName, String columnName) {
+	return new SketchSignalTimescale<T>(kind, q, baseName, name, fromName, columnName);
+    }
+
+    public <T> PersistentSignal<T> newBucket(String interval, String aggregate, boolean materialized, String baseName, String name, String fromName, String columnName) {
+	return new BucketSignalTimescale<T>(interval, aggregate, materialized, baseName, name, fromName, columnName);
+    }
+}
@@ -32,30 +32,40 @@ package signalj.timeseries;
 
 import java.sql.Timestamp;
 
+// Makes persistent signals and views with the backend in use
+// (see Backends).
 public class TimescaleFactory {
     
     public static <T> PersistentSignal<T> newPersistent(String baseName, String name, Synchronizer sync) {
-	return new TimescaleSignal<T>(baseName, name, sync);
+	return Backends.current().newPersistent(baseName, name, sync);
     }
 
     public static <T> PersistentSignal<T> newWithin(Timestamp ts, String interval, String baseName, String name, String fromName, String columnName) {
-	return new WithinSignalTimescale<T>(ts,interval,baseName,name,fromName,columnName);
+	return Backends.current().newWithin(ts, interval, baseName, name, fromName, columnName);
     }
 
     public static <T> PersistentSignal<T> newLastDiff(int offset, String baseName, String name, String fromName, String columnName) {
-	return new LastDiffSignalTimescale<T>(offset,baseName,name,fromName,columnName);
+	return Backends.current().newLastDiff(offset, baseName, name, fromName, columnName);
     }
 
     public static PersistentSignal<Double> newDistance(PersistentSignal p, String baseName, String name, String fromName, String columnName) {
-	return new DistanceSignalTimescale(p, baseName, name, fromName, columnName);
+	return Backends.current().newDistance(p, baseName, name, fromName, columnName);
     }
 
     public static <T> PersistentSignal<T> newAnalytic(String opName, String baseName, String name, String fromName, String columnName) {
-	return new AnalyticSignalTimescale<T>(opName, baseName, name, fromName, columnName);
+	return Backends.current().newAnalytic(opName, baseName, name, fromName, columnName);
     }
 
     public static <T> PersistentSignal<T> newFirst(String baseName, String name, String fromName, String columnName) {
-	return new FirstSignalTimescale<T>(baseName, name, fromName, columnName);
+	return Backends.current().newFirst(baseName, name, fromName, columnName);
+    }
+
+    public static <T> PersistentSignal<T> newSketch(String kind, double q, String baseName, String name, String fromName, String columnName) {
+	return Backends.current().newSketch(kind, q, baseName, name, fromName, columnName);
+    }
+
+    public static <T> PersistentSignal<T> newBucket(String interval, String aggregate, boolean materialized, String baseName, String name, String fromName, String columnName) {
+	return Backends.current().newBucket(interval, aggregate, materialized, baseName, name, fromName, columnName);
     }
 
 }
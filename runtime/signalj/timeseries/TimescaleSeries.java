@@ -0,0 +1,225 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.sql.*;
+import java.util.HashMap;
+import java.util.StringJoiner;
+import java.util.function.Consumer;
+
+import io.r2dbc.postgresql.api.Notification;
+
+// SeriesStore over the hypertable of an instance.  Appends and reads go
+// through JDBC; notifications arrive on <table>_channel and
+// <table>_checkpoint through the NotificationHub of the database.
+class TimescaleSeries implements SeriesStore {
+
+    private String name;
+    private String table;
+    private DBEndpoint endpoint;
+    private Connection conn = null;
+    private StreamingConnection streaming;
+    private HashMap<Object, Consumer<Notification>> handlers = new HashMap<Object, Consumer<Notification>>();
+
+    TimescaleSeries(String name) {
+	this.name = name;
+	this.table = name.toLowerCase();
+	this.endpoint = DirectoryClient.resolve(name);
+	this.streaming = new StreamingConnection(endpoint);
+    }
+
+    private synchronized Connection conn() throws SQLException {
+	if (conn == null || conn.isClosed()) conn = endpoint.connect();
+	return conn;
+    }
+
+    public Timestamp append(Timestamp time, String[] columns, Object[] values) {
+	StringJoiner cs = new StringJoiner(",");
+	StringJoiner vs = new StringJoiner(",");
+	for (String c : columns) {
+	    cs.add(c);
+	    vs.add("?");
+	}
+	try {
+	    PreparedStatement stmt = conn().prepareStatement("INSERT INTO " + table + "(time, " + cs.toString() +
+							     ") VALUES (COALESCE(?::timestamptz, NOW()), " + vs.toString() + ") RETURNING time");
+	    stmt.setTimestamp(1, time);
+	    for (int i = 0; i < values.length; i++) stmt.setObject(i + 2, values[i]);
+	    ResultSet rs = stmt.executeQuery();
+	    Timestamp retval = rs.next() ? rs.getTimestamp(1) : time;
+	    rs.close();
+	    stmt.close();
+	    return retval;
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	}
+	return null;
+    }
+
+    public Object read(String column, Timestamp cursor) {
+	return single("SELECT " + column + " FROM " + table + (cursor == null ? "" : " WHERE time < ?") +
+		      " ORDER BY time DESC LIMIT 1", cursor);
+    }
+
+    public void addColumn(String column) {
+	try {
+	    Statement stmt = conn().createStatement();
+	    stmt.execute("ALTER TABLE " + table + " ADD COLUMN IF NOT EXISTS " + column);
+	    stmt.close();
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	}
+    }
+
+    public TimeCursor<Object> range(String column, Timestamp from, Timestamp to) {
+	Connection c = null;
+	try {
+	    c = streaming.acquire();
+	    PreparedStatement stmt = c.prepareStatement("SELECT time, " + (column == null ? "time" : column) + " FROM " + table +
+							" WHERE time >= coalesce(?::timestamptz, '-infinity') AND time <= coalesce(?::timestamptz, 'infinity') ORDER BY time");
+	    stmt.setFetchSize(1000);
+	    stmt.setTimestamp(1, from);
+	    stmt.setTimestamp(2, to);
+	    return new ResultSetCursor<Object>(stmt, streaming);
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	    if (c != null) streaming.release();
+	}
+	return (TimeCursor)ConsistencyCheck.cursor(new java.util.Vector<Timestamp>());
+    }
+
+    public Timestamp startOfLast(int count, Timestamp cursor) {
+	return (Timestamp)single("SELECT min(time) FROM (SELECT time FROM " + table + (cursor == null ? "" : " WHERE time < ?") +
+				 " ORDER BY time DESC LIMIT " + count + ") AS l", cursor);
+    }
+
+    public Object aggregate(String op, String column, Timestamp cursor) {
+	String expr = op.equals("first") ? "first(" + column + ", time)" : op + "(" + column + ")";
+	return single("SELECT " + expr + " FROM " + table + (cursor == null ? "" : " WHERE time < ?"), cursor);
+    }
+
+    public Timestamp firstTimestamp() {
+	return (Timestamp)single("SELECT min(time) FROM " + table, null);
+    }
+
+    public Timestamp latestTimestamp() {
+	return (Timestamp)single("SELECT max(time) FROM " + table, null);
+    }
+
+    public Timestamp advanceCheckpoint() {
+	try {
+	    PreparedStatement stmt = conn().prepareStatement(
+		"WITH old AS (SELECT time FROM persistent_instances WHERE relname = ? FOR UPDATE) " +
+		"UPDATE persistent_instances p SET time = now() FROM old WHERE p.relname = ? RETURNING old.time");
+	    stmt.setString(1, table);
+	    stmt.setString(2, table);
+	    ResultSet rs = stmt.executeQuery();
+	    Timestamp retval = rs.next() ? rs.getTimestamp(1) : null;
+	    rs.close();
+	    stmt.close();
+	    return retval;
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	}
+	return null;
+    }
+
+    public void listen(Consumer<Timestamp> onAppend) {
+	subscribe(table + "_channel", onAppend);
+    }
+
+    public void unlisten(Consumer<Timestamp> onAppend) {
+	unsubscribe(table + "_channel", onAppend);
+    }
+
+    public void listenCheckpoint(Consumer<Timestamp> onCheckpoint) {
+	subscribe(table + "_checkpoint", onCheckpoint);
+    }
+
+    public void unlistenCheckpoint(Consumer<Timestamp> onCheckpoint) {
+	unsubscribe(table + "_checkpoint", onCheckpoint);
+    }
+
+    private void subscribe(String channel, Consumer<Timestamp> c) {
+	Consumer<Notification> h = n -> c.accept(NotificationPayload.parse(n.getParameter()).time());
+	synchronized (this) {
+	    handlers.put(c, h);
+	}
+	hub().listen(channel, h);
+    }
+
+    private void unsubscribe(String channel, Consumer<Timestamp> c) {
+	Consumer<Notification> h;
+	synchronized (this) {
+	    h = handlers.remove(c);
+	}
+	if (h != null) hub().unlisten(channel, h);
+    }
+
+    private NotificationHub hub() {
+	return NotificationHub.of(ReactiveStore.of(endpoint.url, endpoint.user, endpoint.password));
+    }
+
+    public void clear() {
+	try {
+	    Statement stmt = conn().createStatement();
+	    stmt.executeUpdate("DELETE FROM " + table);
+	    stmt.close();
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	}
+    }
+
+    public synchronized void close() {
+	try {
+	    if (conn != null) conn.close();
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	}
+	conn = null;
+	streaming.close();
+    }
+
+    private Object single(String sql, Timestamp cursor) {
+	try {
+	    PreparedStatement stmt = conn().prepareStatement(sql);
+	    if (cursor != null) stmt.setTimestamp(1, cursor);
+	    ResultSet rs = stmt.executeQuery();
+	    Object retval = rs.next() ? rs.getObject(1) : null;
+	    rs.close();
+	    stmt.close();
+	    return retval;
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	}
+	return null;
+    }
+}
@@ -31,7 +31,6 @@
 package signalj.timeseries;
 
 import signalj.Signal;
-import java.lang.reflect.Field;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.Statement;
@@ -42,6 +41,8 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.Types;
 import io.reactivex.functions.Consumer;
+import io.reactivex.Flowable;
+import io.reactivex.Maybe;
 import java.util.Arrays;
 import java.util.Vector;
 import java.util.Collections;
@@ -52,11 +53,8 @@ import java.util.ArrayList;
 
 import org.postgresql.*;
 
-import io.r2dbc.postgresql.PostgresqlConnectionFactory;
-import io.r2dbc.postgresql.api.PostgresqlConnection;
-import io.r2dbc.postgresql.PostgresqlConnectionConfiguration;
-import io.r2dbc.postgresql.api.PostgresqlResult;
 import io.r2dbc.postgresql.api.Notification;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 class TimescaleSignal<T> extends Signal<T> implements PersistentSignal<T> {
@@ -66,19 +64,25 @@ class TimescaleSignal<T> extends Signal<T> implements PersistentSignal<T> {
     protected String baseName;
     protected String dbName;
     protected Connection conn;
+    protected SignalCodec codec;
     private Synchronizer sync;
     private boolean discarded = false;
     private SignalClassInstance signalClassInst;
     private Vector<Consumer> subscribers = new Vector<Consumer>();
     private Vector<Synchronizer> externSyncs = new Vector<Synchronizer>(); // downstreams
     private Thread listener = null;
-    private Mono<PostgresqlConnection> receiver = null, checkPointListener = null;
-    private boolean blocked = false;
+    private NotificationHub hub = null;
+    private PropagationGate gate = new PropagationGate(() -> dbName, this::catchUp);
+    private java.util.function.Consumer<Notification> onChannel = n -> offer(NotificationPayload.parse(n.getParameter())), onCheckpoint = n -> checkPoint(NotificationPayload.parse(n.getParameter()).time());
+    private volatile HistoryCache<T> history = null;
+    // the latest row as carried by the last notification
+    private volatile HistoryCache<T> recent = null;
 
     private String url = null;
     private String user = null;
     private String password = null;
     private Connection nmrslv;
+    private Connection rangeConn = null; // bulk reads, outside autocommit
     private boolean hasImprocessingTs = false;
     // uenojip
     private long nanoTime;
@@ -94,27 +98,11 @@ class TimescaleSignal<T> extends Signal<T> implements PersistentSignal<T> {
     protected void connectDB(String id) {
 	try {
 	    Class.forName("org.postgresql.Driver");
-	    if (DBConfig.distributed != null && DBConfig.distributed.equals("true")) {
-		nmrslv = DriverManager.getConnection(DBConfig.url,
-								DBConfig.user,
-								DBConfig.password);
-		PreparedStatement stmt = nmrslv.prepareStatement("SELECT url,userid,passwd FROM kvs WHERE id = ?");
-		stmt.setString(1, id.toLowerCase());
-		ResultSet rs = stmt.executeQuery();
-		if (rs.next()) {
-		    url = rs.getString("url");
-		    user = rs.getString("userid");
-		    password = rs.getString("passwd");
-		}
-		url = url.replaceAll("postgres", "jdbc:postgresql");
-		rs.close();
-		stmt.close();
-		//		nmrslv.close();
-	    } else {
-                url = DBConfig.url;
-		user = DBConfig.user;
-		password = DBConfig.password;
-	    }
+	    DBEndpoint endpoint = DirectoryClient.resolve(id);
+	    url = endpoint.url;
+	    user = endpoint.user;
+	    password = endpoint.password;
+	    if (DirectoryClient.distributed()) nmrslv = DirectoryClient.directory();
 	    conn = DriverManager.getConnection(url, user, password);
 
 	    PreparedStatement query = conn.prepareStatement("SELECT time FROM persistent_instances WHERE relname = ?");
@@ -138,16 +126,54 @@ class TimescaleSignal<T> extends Signal<T> implements PersistentSignal<T> {
 	this.sync = sync;
 	connectDB(dbName);
 	sync.setConnection(this.conn);
+	sync.setStore(store());
+	codec = new SignalCodec(dbName, name);
+	codec.resolve(conn);
     }
 
     public PersistentSignal<T> setName(String name) {
 	this.name = name;
 	connectDB(dbName);
+	codec = new SignalCodec(dbName, name);
 	return this;
     }
 
     public String name() { return name; }
 
+    // the R2DBC store of this signal's database, if enabled
+    protected ReactiveStore store() {
+	if (!ReactiveStore.enabled() || url == null) return null;
+	return ReactiveStore.of(url, user, password);
+    }
+
+    // the LISTEN connection of this signal's database
+    protected NotificationHub notifications() {
+	return NotificationHub.of(ReactiveStore.of(url, user, password));
+    }
+
+    // installs (or with null, drops) rows preloaded for time-cursor reads
+    void preload(HistoryCache<T> history) {
+	this.history = history;
+    }
+
+    // Remembers the row of a notification, so that time-cursor reads
+    // after its time are answered from memory until the next insert.
+    void recent(Timestamp time, NotificationPayload payload) {
+	ValueCodec<T> c = codec();
+	if (time == null || c == null || c == ValueCodecs.OBJECT || !payload.hasColumn(name)) {
+	    recent = null;
+	    return;
+	}
+	try {
+	    long t = HistoryCache.micros(time);
+	    HistoryCache<T> h = new HistoryCache<T>(t, Long.MAX_VALUE, time);
+	    h.add(t, c.parse(payload.column(name)));
+	    recent = h;
+	} catch (RuntimeException e) {
+	    recent = null;
+	}
+    }
+
     public String dbName() { return dbName; }
 
     public void set(T value) {
@@ -158,11 +184,7 @@ class TimescaleSignal<T> extends Signal<T> implements PersistentSignal<T> {
 	    s.snapshot(new Timestamp(System.currentTimeMillis()), true);
 	}
 	*/
-	if (current instanceof String) {
-	    sync.delay(this, "'"+String.valueOf(value)+"'");
-	} else {
-	    sync.delay(this, String.valueOf(value));
-	}
+	sync.delay(this, value);
     }
 
     public Timestamp getImprocessingTimestamp() {
@@ -172,54 +194,51 @@ class TimescaleSignal<T> extends Signal<T> implements PersistentSignal<T> {
 
     public void setUpstream(SignalClassInstance o, SignalClassInstance n) {
 	nanoTime = System.nanoTime();
-	for (Field f : signalClassInst.getClass().getDeclaredFields()) {
-	    try {
-		if(f.get(signalClassInst) == o) {
-		    sync.blockSource();
-		    Set<Synchronizer> visitedNodes = new HashSet<Synchronizer>();
-		    Set<Synchronizer> visitedQNodes = new HashSet<Synchronizer>();
-		    // improcessing timestamp list
-		    List<Timestamp> tl = sync.queryImprocessingTimestamps(new ArrayList<Timestamp>(), visitedNodes);
-		    
-		    tl.remove(n.latestTimestamp());
-
-		    List<Synchronizer> downMost = sync.queryMostDownstreams(new ArrayList<Synchronizer>(), visitedQNodes);
-
-		    Synchronizer newNode = n.getSynchronizer();
-		    newNode.initWaitListMap();
-
-		    for (Timestamp t: tl) {
-			newNode.putWaitListMap(t,0);
-		    }
+	if (o != null && !DependencyGraph.upstreams(sync).contains(o.getSynchronizer())) return;
+	sync.blockSource();
+	Set<Synchronizer> visitedNodes = new HashSet<Synchronizer>();
+	Set<Synchronizer> visitedQNodes = new HashSet<Synchronizer>();
+	// improcessing timestamp list
+	List<Timestamp> tl = sync.queryImprocessingTimestamps(new ArrayList<Timestamp>(), visitedNodes);
 
-		    for (Timestamp t : tl) {
-			for (Synchronizer s : downMost) {
-			    Timestamp t1 = s.latestTimestamp();
-			    if (!s.listeners().contains(newNode)) {
-				s.addListener(newNode);
-			    }
-			    if (t1.before(t)) {
-				newNode.putWaitListMap(t, newNode.getWaitListMap(t) + s.countWaits(t));
-			    }
-			}
-		    }
-		    for (Timestamp tt : newNode.waitListMapKeySet()) {
-			if (newNode.getWaitListMap(tt) > 0) {
-			    return;
-			}
-		    }
+	tl.remove(n.getSynchronizer().latestTimestamp());
+
+	List<Synchronizer> downMost = sync.queryMostDownstreams(new ArrayList<Synchronizer>(), visitedQNodes);
+
+	Synchronizer newNode = n.getSynchronizer();
+	newNode.initWaitListMap();
+
+	for (Timestamp t: tl) {
+	    newNode.putWaitListMap(t,0);
+	}
 
-		    doSwitch(f, o, n);
-		    break;
+	for (Timestamp t : tl) {
+	    for (Synchronizer s : downMost) {
+		Timestamp t1 = s.latestTimestamp();
+		if (!s.listeners().contains(newNode)) {
+		    s.addListener(newNode);
 		}
-	    } catch (IllegalAccessException e) {
-		e.printStackTrace();
+		if (t1.before(t)) {
+		    newNode.putWaitListMap(t, newNode.getWaitListMap(t) + s.countWaits(t));
+		}
+	    }
+	}
+	for (Timestamp tt : newNode.waitListMapKeySet()) {
+	    if (newNode.getWaitListMap(tt) > 0) {
+		return;
 	    }
 	}
+
+	doSwitch(o, n);
     }
 
-    private void doSwitch(Field f, SignalClassInstance o, SignalClassInstance n) throws IllegalAccessException {
-	f.set(signalClassInst, n);
+    // the field holding o is replaced by the accessor generated for
+    // the signal class
+    private void doSwitch(SignalClassInstance o, SignalClassInstance n) {
+	if (!signalClassInst.replaceUpstream(o, n)) {
+	    sync.unblockSource();
+	    return;
+	}
 	Synchronizer oldSync = null;
 	for (Synchronizer s : sync.getSourceSyncs()) {
 	    if (o != null && s == o.getSynchronizer()) {
@@ -280,6 +299,13 @@ class TimescaleSignal<T> extends Signal<T> implements PersistentSignal<T> {
 
     protected T valueWithTimeCursor() {
 	T retval = null;
+	HistoryCache<T> h = history;
+	if (h == null || !h.covers(timeCursor)) h = recent;
+	if (h != null && h.covers(timeCursor)) {
+	    retval = h.at(timeCursor);
+	    if (retval == null && codec() != null) retval = codec().defaultValue();
+	    return retval;
+	}
 	try {
 	    PreparedStatement stmt = conn.prepareStatement("SELECT " + name + ", time FROM " + dbName + " WHERE time < '" + timeCursor + "' ORDER BY time DESC LIMIT 1");
 	    ResultSet rs = stmt.executeQuery();
@@ -292,6 +318,111 @@ class TimescaleSignal<T> extends Signal<T> implements PersistentSignal<T> {
 	return retval;
     }
 
+    // Opens a time-ordered cursor over [from, to) of the given column.
+    // With seed, the cursor starts from the last row at or before from.
+    TimeCursor<Object> cursor(String table, String column, Timestamp from, Timestamp to, boolean seed) {
+	String lower = seed ?
+	    "time >= (SELECT coalesce(max(time), '-infinity') FROM " + table + " WHERE time <= ?)" :
+	    "time >= ?";
+	try {
+	    PreparedStatement stmt = conn.prepareStatement("SELECT time, " + column + " FROM " + table + " WHERE " + lower + " AND time < ? ORDER BY time");
+	    stmt.setTimestamp(1, from);
+	    stmt.setTimestamp(2, to);
+	    return new ResultSetCursor<Object>(stmt);
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	}
+	return null;
+    }
+
+    public Flowable<T> valueRx() {
+	ReactiveStore store = store();
+	if (timeCursor == null) return Maybe.fromCallable(() -> current).toFlowable();
+	if (store == null) return Maybe.fromCallable(this::valueWithTimeCursor).toFlowable();
+	return rx(store, "SELECT " + name + " FROM " + dbName + " WHERE time < $1 ORDER BY time DESC LIMIT 1", timeCursor);
+    }
+
+    protected Flowable<T> rx(ReactiveStore store, String sql, Object... binds) {
+	Mono<T> value = store.query(sql, row -> (T)row.get(0), binds).next();
+	T def = codec() == null ? null : codec().defaultValue();
+	return Flowable.fromPublisher(def == null ? value : value.defaultIfEmpty(def));
+    }
+
+    // the column of the relation read by readRange
+    protected String rangeColumn() { return name; }
+
+    public RangeResult readRange(Timestamp from, Timestamp to, RangeResult reuse) {
+	return readRows("SELECT time, " + rangeColumn() + " FROM " + dbName + RANGE + " ORDER BY time", reuse, from, to);
+    }
+
+    public RangeResult readLast(int count, Timestamp to, RangeResult reuse) {
+	return readRows("SELECT time, v FROM (SELECT time, " + rangeColumn() + " AS v FROM " + dbName +
+			" WHERE time < coalesce(?::timestamptz, 'infinity') ORDER BY time DESC LIMIT " + count + ") AS l ORDER BY time", reuse, to);
+    }
+
+    public RangeResult readBuckets(Timestamp from, Timestamp to, String interval, String aggregate, RangeResult reuse) {
+	return readRows("SELECT time_bucket(?::interval, time) AS bucket, " + Buckets.sql(aggregate, rangeColumn()) + " FROM " + dbName +
+			RANGE + " GROUP BY bucket ORDER BY bucket", reuse, interval, from, to);
+    }
+
+    private static final String RANGE = " WHERE time >= coalesce(?::timestamptz, '-infinity') AND time < coalesce(?::timestamptz, 'infinity')";
+    private static final int RANGE_FETCH = 10000;
+
+    // The rows are streamed in batches of RANGE_FETCH, which the
+    // driver only does outside autocommit.  They are read on a
+    // connection of their own, since the Synchronizer inserts through
+    // conn, and an insert must not join the transaction of a read.
+    // Numeric values go straight into the primitive arrays of the
+    // result.
+    private synchronized Connection rangeConnection() throws SQLException {
+	if (rangeConn == null || rangeConn.isClosed()) {
+	    rangeConn = DriverManager.getConnection(url, user, password);
+	    rangeConn.setAutoCommit(false);
+	}
+	return rangeConn;
+    }
+
+    private RangeResult readRows(String sql, RangeResult reuse, Object... binds) {
+	RangeResult r = null;
+	try {
+	    Connection rc = rangeConnection();
+	    synchronized (rc) {
+		try {
+		    PreparedStatement stmt = rc.prepareStatement(sql);
+		    stmt.setFetchSize(RANGE_FETCH);
+		    for (int i = 0; i < binds.length; i++) {
+			if (binds[i] instanceof String) stmt.setString(i + 1, (String)binds[i]);
+			else stmt.setTimestamp(i + 1, (Timestamp)binds[i]);
+		    }
+		    ResultSet rs = stmt.executeQuery();
+		    int kind = RangeResult.kindOf(rs.getMetaData().getColumnType(2));
+		    r = RangeResult.reuse(reuse, kind);
+		    while (rs.next()) {
+			long t = HistoryCache.micros(rs.getTimestamp(1));
+			if (kind == RangeResult.DOUBLE) {
+			    double v = rs.getDouble(2);
+			    r.addDouble(t, v, rs.wasNull());
+			} else if (kind == RangeResult.LONG) {
+			    long v = rs.getLong(2);
+			    r.addLong(t, v, rs.wasNull());
+			} else {
+			    r.add(t, rs.getObject(2));
+			}
+		    }
+		    rs.close();
+		    stmt.close();
+		    rc.commit();
+		} catch (SQLException e) {
+		    rc.rollback();
+		    throw e;
+		}
+	    }
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	}
+	return r != null ? r : RangeResult.reuse(reuse, RangeResult.OBJECT);
+    }
+
     public PersistentSignal<T> within(Timestamp ts, String interval, String name) {
 	return TimescaleFactory.<T>newWithin(ts, interval, baseName, name, this.name, this.name);
     }
@@ -328,6 +459,69 @@ class TimescaleSignal<T> extends Signal<T> implements PersistentSignal<T> {
 	return TimescaleFactory.<T>newAnalytic("min", baseName, name, this.name, this.name);
     }
 
+    public PersistentSignal<Double> quantile(double q, String name) {
+	return sketched(TimescaleFactory.<Double>newSketch(Sketch.QUANTILE, q, baseName, name, this.name, this.name));
+    }
+
+    public PersistentSignal<Long> distinctCount(String name) {
+	return sketched(TimescaleFactory.<Long>newSketch(Sketch.DISTINCT, 0, baseName, name, this.name, this.name));
+    }
+
+    // sketches of this column are updated by the inserts of sync
+    private <R> PersistentSignal<R> sketched(PersistentSignal<R> s) {
+	if (s instanceof SketchSignalTimescale && sync != null) sync.addSketch((SketchSignalTimescale)s);
+	return s;
+    }
+
+    public PersistentSignal<Double> ewma(double alpha, String name) {
+	return rolling(new Rolling(Rolling.EWMA, alpha, 0, null), name);
+    }
+
+    public PersistentSignal<Double> rollingVariance(int samples, String name) {
+	return rolling(new Rolling(Rolling.VARIANCE, 0, samples, null), name);
+    }
+
+    public PersistentSignal<Double> rollingVariance(String window, String name) {
+	return rolling(new Rolling(Rolling.VARIANCE, 0, 0, window), name);
+    }
+
+    public PersistentSignal<Double> rollingStddev(int samples, String name) {
+	return rolling(new Rolling(Rolling.STDDEV, 0, samples, null), name);
+    }
+
+    public PersistentSignal<Double> rollingStddev(String window, String name) {
+	return rolling(new Rolling(Rolling.STDDEV, 0, 0, window), name);
+    }
+
+    public PersistentSignal<Double> rollingMax(int samples, String name) {
+	return rolling(new Rolling(Rolling.MAX, 0, samples, null), name);
+    }
+
+    public PersistentSignal<Double> rollingMax(String window, String name) {
+	return rolling(new Rolling(Rolling.MAX, 0, 0, window), name);
+    }
+
+    public PersistentSignal<Double> rollingMin(int samples, String name) {
+	return rolling(new Rolling(Rolling.MIN, 0, samples, null), name);
+    }
+
+    public PersistentSignal<Double> rollingMin(String window, String name) {
+	return rolling(new Rolling(Rolling.MIN, 0, 0, window), name);
+    }
+
+    // the statistic is a column of this instance, filled by sync
+    protected PersistentSignal<Double> rolling(Rolling r, String name) {
+	return sync.addRolling(this, r, name);
+    }
+
+    public <R> PersistentSignal<R> bucket(String interval, String aggregate, String name) {
+	return bucket(interval, aggregate, false, name);
+    }
+
+    public <R> PersistentSignal<R> bucket(String interval, String aggregate, boolean materialized, String name) {
+	return TimescaleFactory.<R>newBucket(interval, aggregate, materialized, baseName, name, this.name, this.name);
+    }
+
     public void dbgen() { } // throws DoubleInstanceException { }
 
     protected String tableType() { return "TABLE"; }
@@ -335,42 +529,57 @@ class TimescaleSignal<T> extends Signal<T> implements PersistentSignal<T> {
     public void discard() {
 	try {
 	    if (!discarded) {
+		// an instance of a @sharedTable class is a view of the rows of
+		// the shared table, whose rollup is kept
+		String shared = tableType().equals("TABLE") ? Timeseries.sharedTableOf(dbName, conn) : null;
 		conn.setAutoCommit(false);
 		PreparedStatement stmt = conn.prepareStatement("DELETE FROM persistent_instances WHERE relname = '" + dbName.toLowerCase() + "'");
-		PreparedStatement dropStmt = conn.prepareStatement("DROP " + tableType() + " " + dbName.toLowerCase());
+		PreparedStatement dropStmt = conn.prepareStatement("DROP " + (shared == null ? tableType() : "VIEW") + " " + dbName.toLowerCase());
+		PreparedStatement dropTrigger = conn.prepareStatement("DROP TRIGGER IF EXISTS " + dbName.toLowerCase() + "_checkpointTr ON persistent_instances");
 		stmt.executeUpdate();
 		stmt.close();
+		if (tableType().equals("TABLE")) {
+		    // the rollup of @downsample
+		    Statement dropRollup = conn.createStatement();
+		    dropRollup.executeUpdate("DROP VIEW IF EXISTS " + dbName.toLowerCase() + "__history");
+		    if (shared == null) {
+			dropRollup.executeUpdate("DROP MATERIALIZED VIEW IF EXISTS " + dbName.toLowerCase() + "__rollup");
+		    } else {
+			dropRollup.executeUpdate("DELETE FROM " + dbName.toLowerCase());
+		    }
+		    dropRollup.close();
+		}
+		dropTrigger.executeUpdate();
+		dropTrigger.close();
 		dropStmt.executeUpdate();
 		dropStmt.close();
 		conn.commit();
 		conn.close();
+		synchronized (this) {
+		    if (rangeConn != null) rangeConn.close();
+		    rangeConn = null;
+		}
+		if (codec != null) codec.invalidate();
+		if (sync != null) sync.close();
+		if (hub != null) {
+		    hub.unlisten(dbName + "_channel", onChannel);
+		    hub.unlisten(dbName + "_checkpoint", onCheckpoint);
+		}
 		discarded = true;
 	    }
 	} catch (Exception e) {  }
     }
 
+    public ValueCodec<T> codec() {
+	return codec == null ? null : (ValueCodec<T>)codec.valueCodec(conn);
+    }
+
     protected T getValueFromResultSet(ResultSet rs, int column) throws SQLException {
 	T retval = null;
-	ResultSetMetaData meta = rs.getMetaData();
-	int t = meta.getColumnType(1);
-	if (rs.next()) {
-	    if (t == Types.BOOLEAN) retval = (T)(Boolean)rs.getBoolean(1);
-	    else if (t == Types.TINYINT) retval = (T)(Byte)rs.getByte(1);
-	    else if (t == Types.SMALLINT) retval = (T)(Short)rs.getShort(1);
-	    else if (t == Types.INTEGER) retval = (T)(Integer)rs.getInt(1);
-	    else if (t == Types.REAL) retval = (T)(Float)rs.getFloat(1);
-	    else if (t == Types.DOUBLE) retval = (T)(Double)rs.getDouble(1);
-	    else if (t == Types.VARCHAR) retval = (T)rs.getString(1);
-	}
-	if (retval == null) {
-	    if (t == Types.BOOLEAN) retval = (T)(Boolean)false;
-	    else if (t == Types.TINYINT) retval = (T)(Integer)0;
-	    else if (t == Types.SMALLINT) retval = (T)(Integer)0;
-	    else if (t == Types.INTEGER) retval = (T)(Integer)0;
-	    else if (t == Types.REAL) retval = (T)(Double)0.0;
-	    else if (t == Types.DOUBLE) retval = (T)(Double)0.0;
-	    else if (t == Types.VARCHAR) retval = (T)"";
-	}
+	ValueCodec<T> vc = codec();
+	if (vc == null) vc = (ValueCodec<T>)ValueCodecs.forType(rs.getMetaData().getColumnType(column));
+	if (rs.next()) retval = vc.decode(rs, column);
+	if (retval == null) retval = vc.defaultValue();
 	return retval;
     }
 
@@ -422,6 +631,8 @@ class TimescaleSignal<T> extends Signal<T> implements PersistentSignal<T> {
     }
 
     public Timestamp latestTimestamp() {
+	HistoryCache<T> h = history;
+	if (h != null && h.latest() != null) return h.latest();
 	return timestampQuery(" DESC");
     }
 
@@ -478,73 +689,116 @@ class TimescaleSignal<T> extends Signal<T> implements PersistentSignal<T> {
 
     public void addExternSync(Synchronizer sync) {
 	if (!externSyncs.contains(sync)) externSyncs.add(sync);
-	if (receiver == null) {
-	    String address = url.split("://")[1];
-	    String host = address.split(":")[0];
-	    String port = address.split(":")[1].split("/")[0];
-	    String database = address.split(":")[1].split("/")[1].split("\\?")[0];
-	    PostgresqlConnectionFactory connFactory = new PostgresqlConnectionFactory(PostgresqlConnectionConfiguration.builder()
-		    .host(host)
-										      .port(Integer.parseInt(port))
-										      .username(user)
-										      .password(password)
-										      .database(database)
-										      .enableSsl()
-										      .build());
-	    receiver = connFactory.create();
+	if (hub == null) {
+	    hub = NotificationHub.of(ReactiveStore.of(url, user, password));
 	    startListen(dbName);
-	    checkPointListener = connFactory.create();
 	    startListenCheckpoint(dbName);
 	}
     }
 
     private void startListenCheckpoint(String tableName) {
 	if (!sync.listenCptFlag) {
-	    checkPointListener.map(pgconn -> {
-		    return pgconn.createStatement("Listen " + tableName + "_checkpoint")
-			.execute()
-			.thenMany(pgconn.getNotifications())
-			.doOnNext(notification -> checkPoint())
-			.subscribe();
-		}).subscribe();
+	    hub.listen(tableName + "_checkpoint", onCheckpoint);
 	    sync.listenCptFlag = true;
 	}
     }
 
     private void startListen(String tableName) {
 	if (!sync.listenFlag) {
-	    receiver.map(pgconn -> {
-		    return pgconn.createStatement("LISTEN " + tableName + "_channel")
-			.execute()
-			//		    .flatMap(PostgresqlResult::getRowsUpdated)
-			.thenMany(pgconn.getNotifications())
-			.doOnNext(notification -> propagate())
-			.subscribe();
-		}).subscribe();
+	    hub.listen(tableName + "_channel", onChannel);
 	    sync.listenFlag = true;
 	}
     }
 
-    private void propagate() {
-	System.out.println(dbName + "'s start time," + System.nanoTime());
-	while (true) {
-	    if (!blocked) break;
+    // The payload carries the time of the inserted row and, for small
+    // rows, its values; downstreams then need not query this table.
+    // the earliest row time dropped by the gate while it was full, and
+    // the latest row time propagated again by its catch-up; guarded by
+    // the gate
+    private Timestamp droppedFrom = null, caughtUpTo = null;
+    private boolean droppedAny = false;
+
+    private void offer(NotificationPayload payload) {
+	gate.offer(() -> {
+		if (caughtUp(payload.time())) return;
+		propagate(payload);
+	    }, () -> {
+		Timestamp t = payload.time();
+		if (!droppedAny || (droppedFrom != null && (t == null || t.before(droppedFrom)))) droppedFrom = t;
+		droppedAny = true;
+	    });
+    }
+
+    // whether the row at time was already propagated by a catch-up
+    private boolean caughtUp(Timestamp time) {
+	synchronized (gate) {
+	    if (caughtUpTo == null) return false;
+	    if (time != null && !time.after(caughtUpTo)) return true;
+	    caughtUpTo = null;
+	    return false;
+	}
+    }
+
+    // propagates the rows whose notifications the gate dropped, from
+    // the table
+    private void catchUp() {
+	Timestamp from;
+	synchronized (gate) {
+	    from = droppedFrom;
+	    droppedFrom = null;
+	    droppedAny = false;
+	}
+	RangeResult rows = from == null ? null : readRange(from, null, null);
+	if (rows == null || rows.size() == 0) {
+	    propagate(NotificationPayload.of(null));
+	    return;
 	}
+	for (int i = 0; i < rows.size(); i++) {
+	    propagate(NotificationPayload.of(rows.timestamp(i)));
+	}
+	synchronized (gate) {
+	    caughtUpTo = rows.timestamp(rows.size() - 1);
+	}
+    }
+
+    private void propagate(NotificationPayload payload) {
+	System.out.println(dbName + "'s start time," + System.nanoTime());
+	sync.accept(payload);
 	for (Synchronizer sync : externSyncs) {
-	    Timestamp ts = new Timestamp(System.currentTimeMillis());
-	    signalClassInst.snapshot(ts);
-	    sync.snapshot(ts,true);
-	    sync.reval(signalClassInst);
+	    sync.notifyUpdate(signalClassInst, payload.time());
 	}
 	hasImprocessingTs = false;
 	System.out.println(dbName + "'s end time," + System.nanoTime());
     }
 
-    public void block() { blocked = true; }
-    public void unblock() { blocked = false; }
-    public boolean isBlocked() { return blocked; }
-
-    private void checkPoint() {
+    public void block() { gate.block(); }
+    public void unblock() { gate.unblock(); }
+    void submit(Runnable r) { gate.submit(r); }
+    void hold(Object owner) { gate.hold(owner); }
+    void release(Object owner) { gate.release(owner); }
+    public boolean isBlocked() { return gate.isBlocked(); }
+
+    // The notification carries the new checkpoint as its time; without
+    // it the checkpoint is read back.
+    private void checkPoint(Timestamp checkpoint) {
+	if (checkpoint != null) {
+	    if (sync.isSourceSync()) {
+		lastCheckPoint = currentCheckPoint;
+		currentCheckPoint = checkpoint;
+	    }
+	    propagateRecovery(lastCheckPoint, currentCheckPoint);
+	    return;
+	}
+	ReactiveStore store = store();
+	if (store != null) {
+	    Mono<Timestamp> update = !sync.isSourceSync() ? Mono.<Timestamp>empty() :
+		store.query("SELECT time FROM persistent_instances WHERE relname = $1", row -> ReactiveStore.timestamp(row, "time"), dbName.toLowerCase()).next();
+	    update.subscribe(t -> {
+		    lastCheckPoint = currentCheckPoint;
+		    currentCheckPoint = t;
+		}, e -> e.printStackTrace(), () -> propagateRecovery(lastCheckPoint, currentCheckPoint));
+	    return;
+	}
 	if (sync.isSourceSync()) {
 	    updateCheckPoint();
 	    //	    System.out.println(dbName + " is source, just skipped");
@@ -556,10 +810,11 @@ class TimescaleSignal<T> extends Signal<T> implements PersistentSignal<T> {
 	//	}
     }
 
+    // starts the recovery of the downstream instances
     private void propagateRecovery(Timestamp lastCheckPoint, Timestamp currentCheckPoint) {
-	for (Synchronizer sync : externSyncs) {
-	    sync.pushCheckPoint(lastCheckPoint, currentCheckPoint);
-	}
+	RecoveryScheduler.Run run = new RecoveryScheduler.Run(dbName);
+	sync.pushDownstream(lastCheckPoint, currentCheckPoint, run);
+	run.exit();
     }
 
     private void updateCheckPoint() {
@@ -580,62 +835,40 @@ class TimescaleSignal<T> extends Signal<T> implements PersistentSignal<T> {
 
     public void ensureConsistency(Timestamp lastCheckPoint, Timestamp currentCheckPoint) {
 	System.out.println("ensuring consistency of " + dbName + " from " + lastCheckPoint + " to " + currentCheckPoint);
-	Vector<Timestamp> status = sync.getCheckPointTimestamps(lastCheckPoint, currentCheckPoint);
-	Vector<Vector<Timestamp>> upStamps = sync.getUpstreamCheckPointTimestamps(lastCheckPoint, currentCheckPoint);
-	compareAndRestore(upStamps, status);
-	propagateRecovery(lastCheckPoint, currentCheckPoint);
-    }
-
-    private void compareAndRestore(Vector<Vector<Timestamp>> upStamps, Vector<Timestamp> status) {
-	if (sync.getUnion()) {
-	    Vector<Timestamp> tmp = upStamps.elementAt(0);
-	    for (int i=0; i<tmp.size(); i++) {
-		boolean restoreRequired = true;
-		Timestamp tmax = null;
-		for (Vector<Timestamp> upStamp: upStamps) {
-		    Timestamp t = upStamp.elementAt(i);
-		    if (status.contains(t)) restoreRequired = false;
-		    if (tmax == null) tmax = t;
-		    else if (tmax.after(t)) tmax = t;
-		}
-		if (restoreRequired) restore(tmax);
-	    }
-	} else {
-	    for (Vector<Timestamp> upStamp: upStamps) {
-		for (Timestamp t : upStamp) {
-		    if (!status.contains(t)) restore(t);
-		}
-	    }
+	if (store() != null) {
+	    ensureConsistencyRx(lastCheckPoint, currentCheckPoint);
+	    return;
 	}
+	new ReplayEngine(sync).replay(sync.getMissingTimestamps(lastCheckPoint, currentCheckPoint));
     }
 
-    /*
-    private void compareAndRestore(Vector<Timestamp> upStamp, Vector<Timestamp> status) {
-	int upIndex = 0, thisIndex = 0;
-	while (upIndex < upStamp.size()) {
-	    Timestamp up = upStamp.elementAt(upIndex);
-	    if (thisIndex >= status.size()) {
-		restore(up);
-		upIndex++;
-		continue;
-	    }
-	    Timestamp me = status.elementAt(thisIndex);
-	    if (up.equals(me)) {
-		upIndex++;
-		thisIndex++;
-		continue;
-	    }
-	    restore(up);
-	    upIndex++;
+    private void ensureConsistencyRx(Timestamp lastCheckPoint, Timestamp currentCheckPoint) {
+	Mono<Vector<Timestamp>> status = sync.checkPointTimestampsRx(lastCheckPoint, currentCheckPoint)
+	    .collectList().map(l -> new Vector<Timestamp>(l));
+	Mono<Vector<Vector<Timestamp>>> upStamps = Flux.fromArray(sync.getSourceSyncs())
+	    .concatMap(s -> s.checkPointTimestampsRx(lastCheckPoint, currentCheckPoint).collectList())
+	    .map(l -> new Vector<Timestamp>(l))
+	    .collectList().map(l -> new Vector<Vector<Timestamp>>(l));
+	// runs on the recovery pool, which waits for the check
+	try {
+	    status.flatMap(st -> upStamps.map(up -> {
+			compareAndRestore(up, st);
+			return true;
+		    }))
+		.block();
+	} catch (RuntimeException e) {
+	    e.printStackTrace();
 	}
     }
-    */
 
-    private void restore(Timestamp ts) {
-	Timestamp latest = signalClassInst.latestTimestamp();
-	signalClassInst.snapshot(ts);
-	signalClassInst.reval();
-	signalClassInst.snapshot(latest);
+    // both in ascending order of time
+    private void compareAndRestore(Vector<Vector<Timestamp>> upStamps, Vector<Timestamp> status) {
+	Vector<TimeCursor<?>> upstreams = new Vector<TimeCursor<?>>();
+	for (Vector<Timestamp> upStamp : upStamps) upstreams.add(ConsistencyCheck.cursor(upStamp));
+	Vector<Timestamp> missing = sync.getUnion() ?
+	    ConsistencyCheck.missingTuples(ConsistencyCheck.cursor(status), upstreams) :
+	    ConsistencyCheck.missing(ConsistencyCheck.cursor(status), upstreams);
+	new ReplayEngine(sync).replay(missing);
     }
 
     public void addDown(Synchronizer down) {
@@ -35,6 +35,8 @@ import java.sql.SQLException;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.Timestamp;
+import io.reactivex.Flowable;
+import io.reactivex.Maybe;
 
 abstract class TimescaleViewSignal<T> extends TimescaleSignal<T> {
 
@@ -47,9 +49,10 @@ abstract class TimescaleViewSignal<T> extends TimescaleSignal<T> {
 	this.name = name;
 	this.dbName = baseName + "_" + name;
 	this.columnName = columnName;
-	String additional = columnName==null ? "_" + fromName : "";
-	this.fromDB = baseName + additional;
 	connectDB(baseName);
+	// columns of the instance are read with their rollup, if any
+	this.fromDB = columnName==null ? baseName + "_" + fromName : Timeseries.historyOf(baseName, conn);
+	codec = new SignalCodec(dbName, "value");
     }
     
     protected String createView() {
@@ -58,22 +61,10 @@ abstract class TimescaleViewSignal<T> extends TimescaleSignal<T> {
 
     protected String postfix() { return " ORDER BY time LIMIT 1"; }
 
-    private boolean isTimeseriesData() {
-	try {
-	    PreparedStatement stmt = conn.prepareStatement("SELECT column_name FROM information_schema.columns WHERE table_name='" + dbName.toLowerCase() + "'");
-	    ResultSet res = stmt.executeQuery();
-	    while (res.next()) {
-		if (res.getString("column_name").equals("time"))
-		    return true;
-	    }
-	} catch (SQLException e) {
-	    e.printStackTrace();
-	}
-	return false;
-    }
+    protected String rangeColumn() { return "value"; }
 
     public T __signalj__get() {
-	if (timeCursor == null || !isTimeseriesData()) {
+	if (timeCursor == null || !codec.isTimeseries(conn)) {
 	    PreparedStatement stmt;
 	    ResultSet res = null;
 	    ResultSetMetaData rsmd = null;
@@ -109,6 +100,15 @@ abstract class TimescaleViewSignal<T> extends TimescaleSignal<T> {
 
     public T value() { return __signalj__get(); }
 
+    public Flowable<T> valueRx() {
+	ReactiveStore store = store();
+	if (store == null) return Maybe.fromCallable(this::__signalj__get).toFlowable();
+	if (timeCursor == null || !codec.isTimeseries(conn)) {
+	    return rx(store, "SELECT value FROM " + dbName + postfix());
+	}
+	return rx(store, "SELECT value FROM " + dbName + " WHERE time < $1 ORDER BY time DESC LIMIT 1", timeCursor);
+    }
+
     public PersistentSignal<T> within(Timestamp ts, String interval, String name) {
 	return TimescaleFactory.<T>newWithin(ts, interval, baseName, name, this.name, null);
     }
@@ -141,6 +141,27 @@ abstract class TimescaleViewSignal<T> extends TimescaleSignal<T> {
 	return TimescaleFactory.<T>newAnalytic("min", baseName, name, this.name, null);
     }
 
+    public PersistentSignal<Double> quantile(double q, String name) {
+	return TimescaleFactory.<Double>newSketch(Sketch.QUANTILE, q, baseName, name, this.name, null);
+    }
+
+    public PersistentSignal<Long> distinctCount(String name) {
+	return TimescaleFactory.<Long>newSketch(Sketch.DISTINCT, 0, baseName, name, this.name, null);
+    }
+
+    // views have no rows of their own to roll over
+    protected PersistentSignal<Double> rolling(Rolling r, String name) {
+	throw new UnsupportedOperationException("rolling statistics of a view: " + name);
+    }
+
+    public <R> PersistentSignal<R> bucket(String interval, String aggregate, String name) {
+	return bucket(interval, aggregate, false, name);
+    }
+
+    public <R> PersistentSignal<R> bucket(String interval, String aggregate, boolean materialized, String name) {
+	return TimescaleFactory.<R>newBucket(interval, aggregate, materialized, baseName, name, this.name, null);
+    }
+
     public PersistentSignal<T> first(String name) {
 	return TimescaleFactory.<T>newFirst(baseName, name, this.name, null);
     }
@@ -172,6 +193,7 @@ abstract class TimescaleViewSignal<T> extends TimescaleSignal<T> {
 		}
 		hasCreated.close();
 	    }
+	    codec.resolve(conn);
 	} catch (SQLException e) {
 	    e.printStackTrace();
 	}
@@ -31,9 +31,9 @@
 package signalj.timeseries;
 
 import java.sql.*;
-import java.util.StringJoiner;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 
 public class Timeseries {
     // Just a dummy field
@@ -42,23 +42,15 @@ public class Timeseries {
     private static HashMap<String, SignalClassInstance> instances =
 	new HashMap<String, SignalClassInstance>();
 
+    // databases where signalj_notify_trigger() has been (re)defined
+    private static HashSet<String> notifyInstalled = new HashSet<String>();
+
     static {
 	//	resetPersistentSignals();
     }
 
     public static void resetPersistentSignals() {
-	try {
-	    Class.forName("org.postgresql.Driver");
-	    Connection conn = DriverManager.getConnection(DBConfig.url,
-							  DBConfig.user,
-							  DBConfig.password);
-	    PreparedStatement stmt = conn.prepareStatement("UPDATE persistent_instances SET active = 'false'");
-	    stmt.executeUpdate();
-	    stmt.close();
-	    conn.close();
-	} catch(Exception e) {
-	    e.printStackTrace();
-	}
+	Backends.current().reset();
     }
 
     public static boolean checkDB(String name, Connection conn) {
@@ -78,68 +70,156 @@ public class Timeseries {
 
     public static void createDBIfNotExist(String name, String[] contents) 
         throws DoubleInstanceException {
+	Backends.current().create(name, contents);
+    }
+
+    // called by the constructors of signal classes, whose annotations
+    // give the storage policy
+    public static void createDBIfNotExist(String name, String[] contents, Class<?> clazz)
+	throws DoubleInstanceException {
+	Backends.current().create(name, contents, StoragePolicy.of(clazz));
+    }
+
+    // as above, with the name the instance names of the class start
+    // with, <package>_<class>, which names a @sharedTable
+    public static void createDBIfNotExist(String name, String[] contents, Class<?> clazz, String baseName)
+	throws DoubleInstanceException {
+	Backends.current().create(name, contents, StoragePolicy.of(clazz, baseName));
+    }
+
+    // The table holding the rows of an instance of a @sharedTable class,
+    // whose own relation is then a view of them, or null.
+    static String sharedTableOf(String name, Connection conn) {
 	try {
-	    Class.forName("org.postgresql.Driver");
-	    String url = null;
-	    String user = null;
-	    String password = null;
-	    if (DBConfig.distributed.equals("true")) {
-		Connection nmrslv = DriverManager.getConnection(DBConfig.url,
-								DBConfig.user,
-								DBConfig.password);
-		PreparedStatement stmt = nmrslv.prepareStatement("SELECT url,userid,passwd FROM kvs WHERE id = ?");
-		stmt.setString(1, name.toLowerCase());
-		ResultSet rs = stmt.executeQuery();
-		if (rs.next()) {
-		    url = rs.getString("url");
-		    user = rs.getString("userid");
-		    password = rs.getString("passwd");
-		}
-		url = url.replaceAll("postgres", "jdbc:postgresql");
-		rs.close();
-		stmt.close();
-		nmrslv.close();
-	    } else {
-		url = DBConfig.url;
-		user = DBConfig.user;
-		password = DBConfig.password;
-	    }
-
-	    Connection conn = DriverManager.getConnection(url, user, password);
-	    if (!checkDB(name,conn)) {
-		conn.setAutoCommit(false);
-		PreparedStatement createTable, hyperTable, insertInstance;
-		StringJoiner sj = new StringJoiner(",");
-		Arrays.stream(contents).forEach(i -> sj.add(String.valueOf(i)));
-		createTable = conn.prepareStatement("CREATE TABLE " + name +
-						    " (id SERIAL, time TIMESTAMPTZ NOT NULL, " + sj.toString() + ")");
-		hyperTable = conn.prepareStatement("SELECT create_hypertable('" + name + "', 'time')");
-		insertInstance = conn.prepareStatement("INSERT into persistent_instances VALUES ('" + name.toLowerCase() + "', 'true')");
-		createTable.executeUpdate();
-		hyperTable.executeQuery();
-		insertInstance.executeUpdate();
-		createTable.close();
-		hyperTable.close();
-		insertInstance.close();
-		conn.commit();
-	    } else {
-		PreparedStatement update, hasCreated = conn.prepareStatement("SELECT active FROM persistent_instances WHERE relname = '" + name.toLowerCase() + "'");
-		ResultSet rs = hasCreated.executeQuery();
-		if (rs.next()) {
-		    if (rs.getBoolean(1)) {
-			//			throw new DoubleInstanceException("duplicated persistent signal instance: " + name);
-		    } else {
-			update = conn.prepareStatement("UPDATE persistent_instances SET active = 'true' WHERE relname = '" + name.toLowerCase() + "'");
-			update.executeUpdate();
-			update.close();
-		    }
-		}
-		hasCreated.close();
-	    }
-	    conn.close();
-	} catch (Exception e) {
+	    PreparedStatement stmt = conn.prepareStatement("SELECT table_name FROM information_schema.view_table_usage WHERE view_name = ?");
+	    stmt.setString(1, name.toLowerCase());
+	    ResultSet rs = stmt.executeQuery();
+	    String retval = rs.next() ? rs.getString(1) : null;
+	    rs.close();
+	    stmt.close();
+	    return retval;
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	}
+	return null;
+    }
+
+    // The relation views read for the rows of an instance: with
+    // @downsample, a view that continues its rows with the rollup
+    // before the oldest row kept; otherwise its table.
+    static String historyOf(String name, Connection conn) {
+	try {
+	    PreparedStatement stmt = conn.prepareStatement("SELECT to_regclass(?) IS NOT NULL");
+	    stmt.setString(1, name.toLowerCase() + "__history");
+	    ResultSet rs = stmt.executeQuery();
+	    boolean found = rs.next() && rs.getBoolean(1);
+	    rs.close();
+	    stmt.close();
+	    if (found) return name + "__history";
+	} catch (SQLException e) {
 	    e.printStackTrace();
 	}
+	return name;
+    }
+
+    // The declared SQL type of a column, e.g. "integer", or null.
+    static String columnType(String relation, String column, Connection conn) {
+	try {
+	    PreparedStatement stmt = conn.prepareStatement("SELECT format_type(atttypid, atttypmod) FROM pg_attribute " +
+							   "WHERE attrelid = to_regclass(?) AND attname = ? AND NOT attisdropped");
+	    stmt.setString(1, relation.toLowerCase());
+	    stmt.setString(2, column.toLowerCase());
+	    ResultSet rs = stmt.executeQuery();
+	    String retval = rs.next() ? rs.getString(1) : null;
+	    rs.close();
+	    stmt.close();
+	    return retval;
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	}
+	return null;
+    }
+
+    // Defines signalj_notify_trigger() so that its payload carries the
+    // time and the values of the inserted row (see NotificationPayload).
+    // Its own name leaves a notify_trigger() of the database alone.
+    static synchronized void installNotifyTrigger(String url, Connection conn) {
+	if (!notifyInstalled.add(url)) return;
+	try {
+	    Statement stmt = conn.createStatement();
+	    stmt.execute(NotificationPayload.TRIGGER_FUNCTION);
+	    stmt.execute(NotificationPayload.INSTANCE_TRIGGER_FUNCTION);
+	    stmt.execute(NotificationPayload.CHECKPOINT_TRIGGER_FUNCTION);
+	    stmt.close();
+	} catch (SQLException e) {
+	    e.printStackTrace();
+	}
+    }
+
+    // Notifies <name>_checkpoint when the checkpoint of the instance
+    // is advanced.  Installed once when the instance is registered.
+    static void installCheckpointTrigger(String name, Connection conn) throws SQLException {
+	String rel = name.toLowerCase();
+	Statement stmt = conn.createStatement();
+	stmt.execute("DO $$BEGIN CREATE TRIGGER " + rel + "_checkpointTr AFTER UPDATE OF time ON persistent_instances FOR EACH ROW WHEN (NEW.relname = '" + rel + "') EXECUTE PROCEDURE signalj_notify_trigger('" + rel + "_checkpoint'); EXCEPTION WHEN duplicate_object THEN null; END;$$");
+	stmt.close();
+    }
+
+    // Notifies <name>_channel of each row inserted into the table of
+    // the instance, through signalj_notify_trigger().  A trigger of the
+    // same name calling another function, e.g. the notify_trigger() of
+    // older setups, is replaced; one already installed is left alone.
+    static void installInsertTrigger(String name, Connection conn) throws SQLException {
+	String rel = name.toLowerCase();
+	PreparedStatement query = conn.prepareStatement("SELECT p.proname FROM pg_trigger t JOIN pg_proc p ON p.oid = t.tgfoid " +
+							"WHERE t.tgrelid = to_regclass(?) AND t.tgname = ?");
+	query.setString(1, rel);
+	query.setString(2, rel + "_notifytr");
+	ResultSet rs = query.executeQuery();
+	String function = rs.next() ? rs.getString(1) : null;
+	rs.close();
+	query.close();
+	if ("signalj_notify_trigger".equals(function)) return;
+	Statement stmt = conn.createStatement();
+	if (function != null) stmt.execute("DROP TRIGGER " + rel + "_notifyTr ON " + rel);
+	stmt.execute("DO $$BEGIN CREATE TRIGGER " + rel + "_notifyTr AFTER INSERT ON " + rel + " FOR EACH ROW EXECUTE PROCEDURE signalj_notify_trigger('" + rel + "_channel'); EXCEPTION WHEN duplicate_object THEN null; END;$$");
+	stmt.close();
+    }
+
+    // One trigger for all instances of a @sharedTable class.  Their
+    // names start with the name of the table, which filters the rows
+    // cheaply, but so may those of other classes: the function checks
+    // that the instance is a view of the table.  A trigger installed
+    // without the table as argument is replaced.
+    static void installSharedCheckpointTrigger(String table, Connection conn) throws SQLException {
+	String rel = table.toLowerCase();
+	PreparedStatement query = conn.prepareStatement("SELECT tgnargs FROM pg_trigger WHERE tgrelid = 'persistent_instances'::regclass AND tgname = ?");
+	query.setString(1, rel + "_checkpointtr");
+	ResultSet rs = query.executeQuery();
+	int args = rs.next() ? rs.getInt(1) : -1;
+	rs.close();
+	query.close();
+	if (args == 1) return;
+	Statement stmt = conn.createStatement();
+	if (args >= 0) stmt.execute("DROP TRIGGER " + rel + "_checkpointTr ON persistent_instances");
+	stmt.execute("DO $$BEGIN CREATE TRIGGER " + rel + "_checkpointTr AFTER UPDATE OF time ON persistent_instances FOR EACH ROW WHEN (starts_with(NEW.relname, '" + rel + "_')) EXECUTE PROCEDURE signalj_notify_checkpoint_trigger('" + rel + "'); EXCEPTION WHEN duplicate_object THEN null; END;$$");
+	stmt.close();
+    }
+
+    static boolean hasCheckpointTrigger(String name, Connection conn) throws SQLException {
+	PreparedStatement stmt = conn.prepareStatement("SELECT 1 FROM pg_trigger WHERE tgrelid = 'persistent_instances'::regclass AND tgname = ?");
+	stmt.setString(1, name.toLowerCase() + "_checkpointtr");
+	ResultSet rs = stmt.executeQuery();
+	boolean retval = rs.next();
+	rs.close();
+	stmt.close();
+	return retval;
+    }
+
+    // Resolves the databases of many instance IDs at once, so that
+    // creating them does not ask the directory one by one.
+    public static void prefetchDirectory(String... ids) {
+	DirectoryClient.prefetch(Arrays.asList(ids));
     }
 
     public static void putInstance(String id, SignalClassInstance signalClassInstance) {
@@ -0,0 +1,133 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.sql.Timestamp;
+
+// Bounded FIFO of timestamps kept as epoch microseconds.  With a
+// spill file, timestamps offered while the ring is full are appended
+// to the file and moved back into the ring as it drains; otherwise
+// offer() fails when the ring is full.
+class TimestampRing {
+
+    private long[] times;
+    private int head = 0, size = 0;
+    private boolean spill;
+    private RandomAccessFile file = null;
+    private long readPos = 0, writePos = 0;
+
+    TimestampRing(int capacity, boolean spill) {
+	times = new long[Math.max(capacity, 1)];
+	this.spill = spill;
+    }
+
+    boolean offer(Timestamp ts) {
+	long t = HistoryCache.micros(ts);
+	if (size == times.length || spilled() > 0) {
+	    if (!spill) return false;
+	    return write(t);
+	}
+	times[(head + size++) % times.length] = t;
+	return true;
+    }
+
+    // the oldest timestamp, or null if empty
+    Timestamp peek() {
+	return size == 0 ? null : HistoryCache.timestamp(times[head]);
+    }
+
+    Timestamp poll() {
+	if (size == 0) return null;
+	Timestamp ts = HistoryCache.timestamp(times[head]);
+	head = (head + 1) % times.length;
+	size--;
+	refill();
+	return ts;
+    }
+
+    boolean isEmpty() { return size == 0; }
+
+    boolean isFull() { return size == times.length; }
+
+    int capacity() { return times.length; }
+
+    // number of timestamps held, including spilled ones
+    long size() { return size + spilled(); }
+
+    long spilled() { return (writePos - readPos) / 8; }
+
+    void close() {
+	try {
+	    if (file != null) file.close();
+	} catch (IOException e) {
+	    e.printStackTrace();
+	}
+	file = null;
+	readPos = writePos = 0;
+    }
+
+    private boolean write(long t) {
+	try {
+	    if (file == null) {
+		File f = File.createTempFile("signalj-", ".spill");
+		f.deleteOnExit();
+		file = new RandomAccessFile(f, "rw");
+	    }
+	    file.seek(writePos);
+	    file.writeLong(t);
+	    writePos += 8;
+	    return true;
+	} catch (IOException e) {
+	    e.printStackTrace();
+	}
+	return false;
+    }
+
+    private void refill() {
+	if (spilled() == 0) return;
+	try {
+	    file.seek(readPos);
+	    while (size < times.length && readPos < writePos) {
+		times[(head + size++) % times.length] = file.readLong();
+		readPos += 8;
+	    }
+	    if (readPos == writePos) {
+		readPos = writePos = 0;
+		file.setLength(0);
+	    }
+	} catch (IOException e) {
+	    e.printStackTrace();
+	}
+    }
+}
@@ -0,0 +1,193 @@
+/* Copyright (c) 2019-2024, Tetsuo Kamina
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package signalj.timeseries;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Registry of value codecs by JDBC column type.
+public class ValueCodecs {
+
+    private static ConcurrentHashMap<Integer, ValueCodec<?>> codecs =
+	new ConcurrentHashMap<Integer, ValueCodec<?>>();
+
+    static final ValueCodec<Object> OBJECT = new ValueCodec<Object>() {
+	    public void encode(PreparedStatement stmt, int index, Object value) throws SQLException {
+		stmt.setObject(index, value);
+	    }
+	    public Object decode(ResultSet rs, int column) throws SQLException {
+		return rs.getObject(column);
+	    }
+	    public Object defaultValue() { return null; }
+	    public Object parse(String text) { return null; }
+	};
+
+    static {
+	ValueCodec<Boolean> bool = new ValueCodec<Boolean>() {
+		public void encode(PreparedStatement stmt, int index, Boolean value) throws SQLException {
+		    if (value == null) stmt.setNull(index, Types.BOOLEAN);
+		    else stmt.setBoolean(index, value);
+		}
+		public Boolean decode(ResultSet rs, int column) throws SQLException {
+		    boolean v = rs.getBoolean(column);
+		    return rs.wasNull() ? null : v;
+		}
+		public Boolean defaultValue() { return false; }
+		public Boolean parse(String text) { return text == null ? null : Boolean.valueOf(text); }
+	    };
+	register(Types.BOOLEAN, bool);
+	register(Types.BIT, bool);
+
+	register(Types.TINYINT, new ValueCodec<Byte>() {
+		public void encode(PreparedStatement stmt, int index, Byte value) throws SQLException {
+		    if (value == null) stmt.setNull(index, Types.SMALLINT);
+		    else stmt.setShort(index, value);
+		}
+		public Byte decode(ResultSet rs, int column) throws SQLException {
+		    byte v = rs.getByte(column);
+		    return rs.wasNull() ? null : v;
+		}
+		public Byte defaultValue() { return (byte)0; }
+		public Byte parse(String text) { return text == null ? null : Byte.valueOf(text); }
+	    });
+
+	register(Types.SMALLINT, new ValueCodec<Short>() {
+		public void encode(PreparedStatement stmt, int index, Short value) throws SQLException {
+		    if (value == null) stmt.setNull(index, Types.SMALLINT);
+		    else stmt.setShort(index, value);
+		}
+		public Short decode(ResultSet rs, int column) throws SQLException {
+		    short v = rs.getShort(column);
+		    return rs.wasNull() ? null : v;
+		}
+		public Short defaultValue() { return (short)0; }
+		public Short parse(String text) { return text == null ? null : Short.valueOf(text); }
+	    });
+
+	register(Types.INTEGER, new ValueCodec<Integer>() {
+		public void encode(PreparedStatement stmt, int index, Integer value) throws SQLException {
+		    if (value == null) stmt.setNull(index, Types.INTEGER);
+		    else stmt.setInt(index, value);
+		}
+		public Integer decode(ResultSet rs, int column) throws SQLException {
+		    int v = rs.getInt(column);
+		    return rs.wasNull() ? null : v;
+		}
+		public Integer defaultValue() { return 0; }
+		public Integer parse(String text) { return text == null ? null : Integer.valueOf(text); }
+	    });
+
+	register(Types.BIGINT, new ValueCodec<Long>() {
+		public void encode(PreparedStatement stmt, int index, Long value) throws SQLException {
+		    if (value == null) stmt.setNull(index, Types.BIGINT);
+		    else stmt.setLong(index, value);
+		}
+		public Long decode(ResultSet rs, int column) throws SQLException {
+		    long v = rs.getLong(column);
+		    return rs.wasNull() ? null : v;
+		}
+		public Long defaultValue() { return 0L; }
+		public Long parse(String text) { return text == null ? null : Long.valueOf(text); }
+	    });
+
+	register(Types.REAL, new ValueCodec<Float>() {
+		public void encode(PreparedStatement stmt, int index, Float value) throws SQLException {
+		    if (value == null) stmt.setNull(index, Types.REAL);
+		    else stmt.setFloat(index, value);
+		}
+		public Float decode(ResultSet rs, int column) throws SQLException {
+		    float v = rs.getFloat(column);
+		    return rs.wasNull() ? null : v;
+		}
+		public Float defaultValue() { return 0.0f; }
+		public Float parse(String text) { return text == null ? null : Float.valueOf(text); }
+	    });
+
+	ValueCodec<Double> dbl = new ValueCodec<Double>() {
+		public void encode(PreparedStatement stmt, int index, Double value) throws SQLException {
+		    if (value == null) stmt.setNull(index, Types.DOUBLE);
+		    else stmt.setDouble(index, value);
+		}
+		public Double decode(ResultSet rs, int column) throws SQLException {
+		    double v = rs.getDouble(column);
+		    return rs.wasNull() ? null : v;
+		}
+		public Double defaultValue() { return 0.0; }
+		public Double parse(String text) { return text == null ? null : Double.valueOf(text); }
+	    };
+	register(Types.DOUBLE, dbl);
+	register(Types.FLOAT, dbl);
+
+	ValueCodec<BigDecimal> decimal = new ValueCodec<BigDecimal>() {
+		public void encode(PreparedStatement stmt, int index, BigDecimal value) throws SQLException {
+		    if (value == null) stmt.setNull(index, Types.NUMERIC);
+		    else stmt.setBigDecimal(index, value);
+		}
+		public BigDecimal decode(ResultSet rs, int column) throws SQLException {
+		    return rs.getBigDecimal(column);
+		}
+		public BigDecimal defaultValue() { return BigDecimal.ZERO; }
+		public BigDecimal parse(String text) { return text == null ? null : new BigDecimal(text); }
+	    };
+	register(Types.NUMERIC, decimal);
+	register(Types.DECIMAL, decimal);
+
+	ValueCodec<String> str = new ValueCodec<String>() {
+		public void encode(PreparedStatement stmt, int index, String value) throws SQLException {
+		    if (value == null) stmt.setNull(index, Types.VARCHAR);
+		    else stmt.setString(index, value);
+		}
+		public String decode(ResultSet rs, int column) throws SQLException {
+		    return rs.getString(column);
+		}
+		public String defaultValue() { return ""; }
+		public String parse(String text) { return text; }
+	    };
+	register(Types.VARCHAR, str);
+	register(Types.CHAR, str);
+	register(Types.LONGVARCHAR, str);
+	register(Types.NVARCHAR, str);
+	register(Types.CLOB, str);
+    }
+
+    public static void register(int sqlType, ValueCodec<?> codec) {
+	codecs.put(sqlType, codec);
+    }
+
+    public static ValueCodec<?> forType(int sqlType) {
+	ValueCodec<?> codec = codecs.get(sqlType);
+	return codec == null ? OBJECT : codec;
+    }
+}
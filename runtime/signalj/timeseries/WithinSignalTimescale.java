@@ -54,6 +54,7 @@ public class WithinSignalTimescale<T> extends TimescaleViewSignal<T> {
 	super.snapshot(ts);
 	PreparedStatement stmt;
 	try {
+	    // the view keeps its columns, so the cached codec stays valid
 	    String sql = "CREATE OR REPLACE VIEW " + dbName + " AS SELECT " + columns + " FROM " + fromDB + " WHERE time > TIMESTAMP '" + ts + "' - interval '" + interval + "'";
 	    conn.setAutoCommit(false);
 	    stmt = conn.prepareStatement(sql);
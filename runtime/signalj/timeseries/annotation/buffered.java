@@ -35,6 +35,14 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
 
+// With "block", a full buffer holds its upstream: the upstream stops
+// propagating, queues at most a bounded number of its notifications and
+// re-reads the rows of the rest from its table once released.  Tuples
+// already on their way when the hold takes effect still spill past the
+// capacity, so "block" bounds the buffer but may exceed it by those.
 @Target(ElementType.TYPE)
 @Retention(RetentionPolicy.RUNTIME)
-public @interface buffered { }
+public @interface buffered {
+    public int capacity() default 4096; // timestamps queued per upstream
+    public String overflow() default "block"; // "block", "dropOldest" or "spill"
+}